@@ -0,0 +1,214 @@
+/**
+ *  MacroBenchmark replays a query file against an index in each
+ *  retrieval model, through QryEval's own evaluation path (parsing,
+ *  evaluation, and sorting and formatting the results, which reads
+ *  external ids), and reports the throughput, latency percentiles and
+ *  heap high-water mark of each.  With an index from SyntheticIndex,
+ *  it shows how evaluation scales with collection size without a real
+ *  collection.
+ *
+ *  Usage:  java -Xmx4g -cp benchmarks.jar MacroBenchmark paramFile
+ *
+ *  The parameter file is a QryEval parameter file:  indexPath and
+ *  queryFilePath are required, and evaluationMode, numThreads,
+ *  BM25:pruning, queryDag, the document length, docid map and cache
+ *  parameters are used as QryEval uses them.  Retrieval model
+ *  parameters have defaults, and a parameter that has several values
+ *  is swept.  The other parameters are:
+ *
+ *  benchmark:models (default UnrankedBoolean,RankedBoolean,BM25,Indri):
+ *  The retrieval models.
+ *
+ *  benchmark:warmupRounds (default 1), benchmark:rounds (default 3):
+ *  The number of times the query file is replayed before measuring,
+ *  and while measuring.
+ *
+ *  QryEval's progress output is discarded while queries run.
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+
+public class MacroBenchmark {
+
+  private static final String[][] MODEL_DEFAULTS = {
+    { "BM25:k_1", "1.2" }, { "BM25:b", "0.75" }, { "BM25:k_3", "0" },
+    { "Indri:mu", "2500" }, { "Indri:lambda", "0.4" }
+  };
+
+  private final SearchContext index;
+  private final List<Map.Entry<String, String>> queries;
+  private final boolean daat;
+  private final String pruning;
+  private final String dagMode;
+  private final int numThreads;
+
+  /**
+   *  @param index The search context for the index, without a model.
+   *  @param queries The queries by query number.
+   *  @param params The parameter file's parameters.
+   */
+  public MacroBenchmark(SearchContext index, Map<String, String> queries,
+                        Map<String, String> params) {
+    this.index = index;
+    this.queries =
+      new ArrayList<Map.Entry<String, String>>(queries.entrySet());
+    this.daat = "daat".equalsIgnoreCase(params.get("evaluationMode"));
+    this.pruning = get(params, "BM25:pruning", "none").toLowerCase();
+    this.dagMode = get(params, "queryDag", "none").toLowerCase();
+    this.numThreads = Integer.parseInt(get(params, "numThreads", "1"));
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage:  java MacroBenchmark paramFile");
+      System.exit(1);
+    }
+
+    Map<String, String> params = QryEval.readParameters(args[0]);
+    if (!params.containsKey("indexPath") ||
+        !params.containsKey("queryFilePath")) {
+      System.err.println("Error: Parameters were missing.");
+      System.exit(1);
+    }
+    for (String[] value : MODEL_DEFAULTS)
+      if (!params.containsKey(value[0]))
+        params.put(value[0], value[1]);
+
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(
+      params.get("indexPath"))));
+    SearchContext index = QryEval.createSearchContext(reader, params);
+    Map<String, String> queries =
+      QryEval.readQueries(params.get("queryFilePath"));
+    MacroBenchmark benchmark = new MacroBenchmark(index, queries, params);
+
+    int warmupRounds = Integer.parseInt(get(params, "benchmark:warmupRounds",
+                                            "1"));
+    int rounds = Integer.parseInt(get(params, "benchmark:rounds", "3"));
+    String models = get(params, "benchmark:models",
+                        "UnrankedBoolean,RankedBoolean,BM25,Indri");
+
+    System.out.println("Index: " + params.get("indexPath") + " (" +
+                       reader.numDocs() + " documents), " +
+                       benchmark.queries.size() + " queries, " +
+                       benchmark.numThreads + " threads, " +
+                       (benchmark.daat ? "daat" : "taat"));
+    System.out.println(String.format("%-44s %9s %8s %8s %8s %8s", "model",
+                                     "qps", "p50 ms", "p95 ms", "p99 ms",
+                                     "heap MB"));
+
+    for (String algorithm : models.split(",")) {
+      algorithm = algorithm.trim();
+      for (Map<String, String> point :
+             QryEval.parameterGrid(algorithm, params)) {
+        RetrievalModel model = QryEval.createModel(algorithm, point);
+        System.out.println(benchmark.run(model, warmupRounds, rounds));
+      }
+    }
+
+    reader.close();
+  }
+
+  /**
+   *  Replay the queries in one retrieval model.
+   *  @param model The retrieval model.
+   *  @param warmupRounds The number of replays before measuring.
+   *  @param rounds The number of measured replays.
+   *  @return One line of the report.
+   *  @throws Exception
+   */
+  public String run(RetrievalModel model, int warmupRounds, int rounds)
+    throws Exception {
+
+    SearchContext ctx = index.withModel(model);
+    PrintStream out = System.out;
+    long[] latencies = new long[rounds * queries.size()];
+    long elapsed;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+    System.setOut(new PrintStream(new OutputStream() {
+      public void write(int b) {
+      }
+
+      public void write(byte[] b, int off, int len) {
+      }
+    }));
+
+    try {
+      for (int r = 0; r < warmupRounds; r++)
+        replay(ctx, executor, null, 0);
+
+      System.gc();
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        if (pool.getType() == MemoryType.HEAP)
+          pool.resetPeakUsage();
+
+      long start = System.nanoTime();
+      for (int r = 0; r < rounds; r++)
+        replay(ctx, executor, latencies, r * queries.size());
+      elapsed = System.nanoTime() - start;
+    } finally {
+      System.setOut(out);
+      executor.shutdownNow();
+    }
+
+    long heap = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      if (pool.getType() == MemoryType.HEAP)
+        heap += pool.getPeakUsage().getUsed();
+
+    Arrays.sort(latencies);
+    return String.format("%-44s %9.1f %8.2f %8.2f %8.2f %8d", model,
+                         latencies.length / (elapsed / 1e9),
+                         percentile(latencies, 0.50) / 1e6,
+                         percentile(latencies, 0.95) / 1e6,
+                         percentile(latencies, 0.99) / 1e6, heap >> 20);
+  }
+
+  //  Evaluate every query once.  Each query's latency (in nanoseconds)
+  //  is stored at latencies[offset + i], unless latencies is null.
+
+  private void replay(final SearchContext ctx, ExecutorService executor,
+                      final long[] latencies, final int offset)
+    throws Exception {
+
+    List<Future<?>> results = new ArrayList<Future<?>>();
+    for (int i = 0; i < queries.size(); i++) {
+      final int q = i;
+      results.add(executor.submit(new Callable<String>() {
+        public String call() throws IOException {
+          Map.Entry<String, String> query = queries.get(q);
+          long start = System.nanoTime();
+          String k = QryEval.evaluateQuery(query.getKey(), query.getValue(),
+                                           ctx, daat, pruning, dagMode,
+                                           null);
+          if (latencies != null)
+            latencies[offset + q] = System.nanoTime() - start;
+          return k;
+        }
+      }));
+    }
+
+    for (Future<?> result : results)
+      result.get();
+  }
+
+  //  The nearest-rank percentile of sorted values.
+
+  private static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0)
+      return 0;
+    int rank = (int) Math.ceil(p * sorted.length);
+    return sorted[Math.max(rank, 1) - 1];
+  }
+
+  private static String get(Map<String, String> params, String name,
+                            String value) {
+    return params.containsKey(name) ? params.get(name) : value;
+  }
+}
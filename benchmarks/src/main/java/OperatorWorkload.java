@@ -0,0 +1,137 @@
+/**
+ *  OperatorWorkload evaluates one query operator, term-at-a-time, over
+ *  synthetic argument lists.  The arguments are leaves that return
+ *  fixed lists, so the benchmark measures the operator alone.  The
+ *  parameters are:
+ *
+ *  op:  AND (RankedBoolean), AND_INDRI, OR (RankedBoolean), SUM (BM25),
+ *  SYN, NEAR (#NEAR/2) or WINDOW (#WINDOW/8).
+ *
+ *  postings:  The length of the longest argument list.  The collection
+ *  has 10 times as many documents.
+ *
+ *  args, zipf:  The number of arguments; the i'th has
+ *  postings / (i + 1)^zipf postings.
+ *
+ *  seed:  The random seed.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import qryeval.jmh.Workload;
+
+public class OperatorWorkload implements Workload {
+
+  private static final int COLLECTION_RATIO = 10;
+  private static final int DOC_LENGTH = 100;
+
+  private Qryop op;
+  private SearchContext ctx;
+
+  public void setup(Map<String, String> params) throws Exception {
+    String name = params.get("op");
+    int postings = Integer.parseInt(params.get("postings"));
+    int args = Integer.parseInt(params.get("args"));
+    double zipf = Double.parseDouble(params.get("zipf"));
+    SyntheticLists lists =
+      new SyntheticLists(Long.parseLong(params.get("seed")),
+                         COLLECTION_RATIO * postings, DOC_LENGTH);
+
+    RetrievalModel model;
+    if (name.equals("AND")) {
+      op = new QryopSlAnd();
+      model = new RetrievalModelRankedBoolean();
+    } else if (name.equals("AND_INDRI")) {
+      op = new QryopSlAnd();
+      model = new RetrievalModelIndri();
+    } else if (name.equals("OR")) {
+      op = new QryopSlOr();
+      model = new RetrievalModelRankedBoolean();
+    } else if (name.equals("SUM")) {
+      op = new QryopBM25Sum();
+      model = new RetrievalModelBM25();
+    } else if (name.equals("SYN")) {
+      op = new QryopIlSyn();
+      model = new RetrievalModelUnrankedBoolean();
+    } else if (name.equals("NEAR")) {
+      op = new QryopSINear(2);
+      model = new RetrievalModelUnrankedBoolean();
+    } else if (name.equals("WINDOW")) {
+      op = new QryopIlWindow(8);
+      model = new RetrievalModelUnrankedBoolean();
+    } else {
+      throw new IllegalArgumentException("Unknown op " + name);
+    }
+
+    for (int i = 0; i < args; i++) {
+      int n = SyntheticLists.zipfLength(postings, i, zipf);
+      if (op instanceof QryopIl)
+        op.add(new FixedInvList(lists.invList("body", n)));
+      else
+        op.add(new FixedScoreList(lists.scoreList(n)));
+    }
+
+    ctx = new SearchContext(null, null, null, model, null);
+  }
+
+  public Object run() throws Exception {
+    return op.evaluate(ctx);
+  }
+
+  /**
+   *  A leaf that returns a fixed inverted list, in place of a term.
+   */
+  static class FixedInvList extends QryopIl {
+
+    private QryResult result = new QryResult();
+
+    FixedInvList(InvList list) {
+      result.invertedList = list;
+    }
+
+    public void add(Qryop q) {
+      throw new UnsupportedOperationException();
+    }
+
+    public QryResult evaluate(SearchContext ctx) {
+      return result;
+    }
+
+    public String toString() {
+      return "#FIXED(" + result.invertedList.df + ")";
+    }
+  }
+
+  /**
+   *  A leaf that returns a fixed score list, in place of a scored term.
+   */
+  static class FixedScoreList extends QryopSl {
+
+    //  A small default score, like a smoothed Indri term score.
+
+    private static final double DEFAULT_SCORE = 0.01;
+
+    private QryResult result = new QryResult();
+
+    FixedScoreList(ScoreList list) {
+      result.docScores = list;
+    }
+
+    public void add(Qryop q) {
+      throw new UnsupportedOperationException();
+    }
+
+    public QryResult evaluate(SearchContext ctx) {
+      return result;
+    }
+
+    public double getDefaultScore(SearchContext ctx, long docid) {
+      return DEFAULT_SCORE;
+    }
+
+    public String toString() {
+      return "#FIXED(" + result.docScores.size() + ")";
+    }
+  }
+}
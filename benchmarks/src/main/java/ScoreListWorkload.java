@@ -0,0 +1,68 @@
+/**
+ *  ScoreListWorkload merges or selects from synthetic score lists.
+ *  The parameters are:
+ *
+ *  op:  MERGE2 (ScoreList.merge of the two longest lists), MERGEK (the
+ *  k-way ScoreList.merge of every list) or TOPK (ScoreList.topK of
+ *  the longest list).
+ *
+ *  postings:  The length of the longest list.  The collection has 10
+ *  times as many documents.
+ *
+ *  lists, zipf:  The number of lists; the i'th has
+ *  postings / (i + 1)^zipf documents.
+ *
+ *  k:  The number of documents that TOPK selects.
+ *
+ *  seed:  The random seed.
+ */
+
+import java.util.*;
+
+import qryeval.jmh.Workload;
+
+public class ScoreListWorkload implements Workload {
+
+  private static final int COLLECTION_RATIO = 10;
+
+  private String op;
+  private List<ScoreList> lists = new ArrayList<ScoreList>();
+  private int k;
+  private SearchContext ctx;
+
+  public void setup(Map<String, String> params) throws Exception {
+    op = params.get("op");
+    int postings = Integer.parseInt(params.get("postings"));
+    int n = Integer.parseInt(params.get("lists"));
+    double zipf = Double.parseDouble(params.get("zipf"));
+    k = Integer.parseInt(params.get("k"));
+    SyntheticLists generator =
+      new SyntheticLists(Long.parseLong(params.get("seed")),
+                         COLLECTION_RATIO * postings, 1);
+
+    if (!op.equals("MERGE2") && !op.equals("MERGEK") && !op.equals("TOPK"))
+      throw new IllegalArgumentException("Unknown op " + op);
+    if (op.equals("MERGE2"))
+      n = 2;
+    if (op.equals("TOPK"))
+      n = 1;
+
+    for (int i = 0; i < n; i++)
+      lists.add(generator.scoreList(SyntheticLists.zipfLength(postings, i,
+                                                              zipf)));
+
+    //  Synthetic scores don't tie, so topK never reads external ids,
+    //  and the context doesn't need an index.
+
+    ctx = new SearchContext(null, null, null,
+                            new RetrievalModelUnrankedBoolean(), null);
+  }
+
+  public Object run() throws Exception {
+    if (op.equals("MERGE2"))
+      return ScoreList.merge(lists.get(0), lists.get(1), ScoreList.SUM);
+    if (op.equals("MERGEK"))
+      return ScoreList.merge(lists, ScoreList.SUM);
+    return lists.get(0).topK(k, ctx);
+  }
+}
@@ -0,0 +1,360 @@
+/**
+ *  SyntheticIndex builds a Lucene index that looks like the indexes
+ *  that QryEval searches, and a query file for it, so that end-to-end
+ *  benchmarks (see MacroBenchmark) can run without a real collection.
+ *
+ *  Documents have the body, title, url, keywords and inlink fields,
+ *  with positions and DocLenStoreSimilarity norms, and a stored
+ *  externalId.  Field text is drawn from a synthetic vocabulary whose
+ *  word frequencies follow Zipf's law.  Text is analyzed with
+ *  QryEval's analyzer, and every vocabulary word is one that the
+ *  analyzer keeps as it is, so the vocabulary size is the number of
+ *  distinct terms.
+ *
+ *  Usage:  java -cp benchmarks.jar SyntheticIndex paramFile
+ *
+ *  The parameters are:
+ *
+ *  indexPath:  The index to create.  An existing index is replaced.
+ *
+ *  synthetic:numDocs:  The number of documents.
+ *
+ *  synthetic:vocabularySize (default 100000), synthetic:zipf (default
+ *  1.0):  The number of distinct words, and the exponent of Zipf's law.
+ *
+ *  synthetic:bodyLength (default 300):  The mean body length.  The
+ *  other fields have fixed mean lengths.
+ *
+ *  synthetic:seed (default 42):  The random seed.  Each document's text
+ *  depends only on the seed and its number.
+ *
+ *  synthetic:threads (default 1):  Indexing threads.  With more than
+ *  one thread, documents get the same text, but not the same internal
+ *  docids, from run to run.
+ *
+ *  synthetic:maxSegments (optional):  Merge the index down to this many
+ *  segments.
+ *
+ *  synthetic:queryFilePath, synthetic:numQueries (default 100):  The
+ *  query file to write, and the number of queries in it.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+public class SyntheticIndex {
+
+  private static final String[] FIELDS =
+    { "body", "title", "url", "keywords", "inlink" };
+  private static final int[] MEAN_LENGTHS = { 300, 8, 6, 6, 20 };
+
+  //  Words are built from consonant-vowel syllables.
+
+  private static final String CONSONANTS = "bdfgklmnprtvz";
+  private static final String VOWELS = "aeiou";
+
+  //  The most frequent words are like stopwords, so queries don't use
+  //  them.
+
+  private static final int QUERY_MIN_RANK = 10;
+
+  private final String[] vocabulary;
+  private final ZipfSampler sampler;
+  private final long seed;
+  private final int[] meanLengths;
+
+  /**
+   *  @param vocabularySize The number of distinct words.
+   *  @param zipf The exponent of Zipf's law.
+   *  @param bodyLength The mean body length.
+   *  @param seed The random seed.
+   *  @throws IOException
+   */
+  public SyntheticIndex(int vocabularySize, double zipf, int bodyLength,
+                        long seed) throws IOException {
+    this.vocabulary = vocabulary(vocabularySize);
+    this.sampler = new ZipfSampler(vocabularySize, zipf);
+    this.seed = seed;
+    this.meanLengths = MEAN_LENGTHS.clone();
+    this.meanLengths[0] = bodyLength;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage:  java SyntheticIndex paramFile");
+      System.exit(1);
+    }
+
+    Map<String, String> params = QryEval.readParameters(args[0]);
+    if (!params.containsKey("indexPath") ||
+        !params.containsKey("synthetic:numDocs")) {
+      System.err.println("Error: Parameters were missing.");
+      System.exit(1);
+    }
+
+    SyntheticIndex generator =
+      new SyntheticIndex(intParam(params, "synthetic:vocabularySize", 100000),
+                         doubleParam(params, "synthetic:zipf", 1.0),
+                         intParam(params, "synthetic:bodyLength", 300),
+                         longParam(params, "synthetic:seed", 42));
+
+    long start = System.currentTimeMillis();
+    generator.writeIndex(new File(params.get("indexPath")),
+                         intParam(params, "synthetic:numDocs", 0),
+                         intParam(params, "synthetic:threads", 1),
+                         intParam(params, "synthetic:maxSegments", 0));
+    System.out.println("Indexed in " + (System.currentTimeMillis() - start)
+                       + " ms");
+
+    if (params.containsKey("synthetic:queryFilePath"))
+      generator.writeQueries(new File(params.get("synthetic:queryFilePath")),
+                             intParam(params, "synthetic:numQueries", 100));
+  }
+
+  /**
+   *  Build the index.
+   *  @param path The index directory.
+   *  @param numDocs The number of documents.
+   *  @param threads The number of indexing threads.
+   *  @param maxSegments Merge the index down to this many segments, or
+   *         0 to leave it as it is.
+   *  @throws Exception
+   */
+  public void writeIndex(File path, final int numDocs, int threads,
+                         int maxSegments) throws Exception {
+
+    IndexWriterConfig config =
+      new IndexWriterConfig(Version.LUCENE_43, QryEval.analyzer);
+    config.setSimilarity(new DocLenStoreSimilarity());
+    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    config.setRAMBufferSizeMB(256);
+    final IndexWriter writer =
+      new IndexWriter(FSDirectory.open(path), config);
+
+    final AtomicInteger done = new AtomicInteger();
+    final AtomicReference<Exception> error =
+      new AtomicReference<Exception>();
+    final Thread[] workers = new Thread[Math.max(threads, 1)];
+
+    for (int t = 0; t < workers.length; t++) {
+      final int first = t;
+      workers[t] = new Thread() {
+        public void run() {
+          try {
+            StringBuilder text = new StringBuilder();
+            for (int d = first; d < numDocs && error.get() == null;
+                 d += workers.length) {
+              writer.addDocument(document(d, text));
+              int n = done.incrementAndGet();
+              if (n % 1000000 == 0)
+                System.out.println("Indexed " + n + " documents");
+            }
+          } catch (Exception e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      };
+      workers[t].start();
+    }
+
+    for (Thread worker : workers)
+      worker.join();
+    if (error.get() != null) {
+      writer.rollback();
+      throw error.get();
+    }
+
+    if (maxSegments > 0)
+      writer.forceMerge(maxSegments);
+    writer.close();
+  }
+
+  /**
+   *  Write a query file.  Queries have 2-4 words, and some use #NEAR,
+   *  #SYN or a field other than body, so every retrieval model can run
+   *  them and the common operators are exercised.
+   *  @param path The query file.
+   *  @param numQueries The number of queries.
+   *  @throws IOException
+   */
+  public void writeQueries(File path, int numQueries) throws IOException {
+    Random random = new Random(seed);
+    BufferedWriter out = new BufferedWriter(new FileWriter(path));
+
+    for (int q = 1; q <= numQueries; q++) {
+      int n = 2 + random.nextInt(3);
+      String[] words = new String[n];
+      for (int i = 0; i < n; i++)
+        words[i] = queryWord(random);
+
+      StringBuilder query = new StringBuilder();
+      int kind = random.nextInt(10);
+      if (kind == 0)
+        query.append("#near/2(").append(words[0]).append(' ')
+          .append(words[1]).append(')');
+      else if (kind == 1)
+        query.append("#syn(").append(words[0]).append(' ')
+          .append(words[1]).append(')');
+      else
+        query.append(words[0]).append(' ').append(words[1]);
+
+      for (int i = 2; i < n; i++) {
+        query.append(' ').append(words[i]);
+        if (random.nextInt(10) == 0)
+          query.append('.').append(FIELDS[1 + random.nextInt(4)]);
+      }
+
+      out.write(q + ":" + query);
+      out.newLine();
+    }
+    out.close();
+  }
+
+  //  Each document has its own random generator, so its text doesn't
+  //  depend on the order in which documents are generated.
+
+  private Document document(int d, StringBuilder text) {
+    Random random = new Random(seed * 0x9E3779B97F4A7C15L + d);
+    Document doc = new Document();
+
+    doc.add(new StringField("externalId", String.format("synthetic-%09d", d),
+                            Field.Store.YES));
+
+    for (int f = 0; f < FIELDS.length; f++) {
+      int length = 1 + random.nextInt(2 * meanLengths[f] - 1);
+      text.setLength(0);
+      for (int i = 0; i < length; i++) {
+        if (i > 0)
+          text.append(' ');
+        text.append(vocabulary[sampler.sample(random)]);
+      }
+      doc.add(new TextField(FIELDS[f], text.toString(), Field.Store.NO));
+    }
+    return doc;
+  }
+
+  private String queryWord(Random random) {
+    int rank;
+    do {
+      rank = sampler.sample(random);
+    } while (rank < QUERY_MIN_RANK && vocabulary.length > QUERY_MIN_RANK);
+    return vocabulary[rank];
+  }
+
+  //  The vocabulary, most frequent word first.  Candidate words are
+  //  numbers written in syllables, and a candidate is used if the
+  //  analyzer keeps it as it is.
+
+  private static String[] vocabulary(int size) throws IOException {
+    String[] words = new String[size];
+    int syllables = CONSONANTS.length() * VOWELS.length();
+    StringBuilder word = new StringBuilder();
+
+    for (int n = 0, candidate = 0; n < size; candidate++) {
+      word.setLength(0);
+      int c = candidate;
+      do {
+        int s = c % syllables;
+        word.append(CONSONANTS.charAt(s / VOWELS.length()))
+          .append(VOWELS.charAt(s % VOWELS.length()));
+        c /= syllables;
+      } while (c > 0 || word.length() < 4);
+
+      String w = word.toString();
+      if (analyzesTo(w))
+        words[n++] = w;
+    }
+    return words;
+  }
+
+  private static boolean analyzesTo(String word) throws IOException {
+    TokenStream tokens =
+      QryEval.analyzer.tokenStream("body", new StringReader(word));
+    CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+    tokens.reset();
+    boolean same = tokens.incrementToken() && word.contentEquals(term) &&
+      !tokens.incrementToken();
+    tokens.end();
+    tokens.close();
+    return same;
+  }
+
+  private static int intParam(Map<String, String> params, String name,
+                              int value) {
+    return params.containsKey(name) ? Integer.parseInt(params.get(name))
+      : value;
+  }
+
+  private static long longParam(Map<String, String> params, String name,
+                                long value) {
+    return params.containsKey(name) ? Long.parseLong(params.get(name))
+      : value;
+  }
+
+  private static double doubleParam(Map<String, String> params, String name,
+                                    double value) {
+    return params.containsKey(name) ? Double.parseDouble(params.get(name))
+      : value;
+  }
+
+  /**
+   *  Samples ranks 0..n-1 with P(rank) proportional to 1 / (rank + 1)^s,
+   *  in constant time (Vose's alias method).
+   */
+  static class ZipfSampler {
+
+    private final double[] probability;
+    private final int[] alias;
+
+    ZipfSampler(int n, double s) {
+      probability = new double[n];
+      alias = new int[n];
+
+      double[] p = new double[n];
+      double sum = 0;
+      for (int i = 0; i < n; i++)
+        sum += (p[i] = 1.0 / Math.pow(i + 1, s));
+      for (int i = 0; i < n; i++)
+        p[i] *= n / sum;
+
+      int[] small = new int[n];
+      int[] large = new int[n];
+      int smalls = 0;
+      int larges = 0;
+      for (int i = 0; i < n; i++)
+        if (p[i] < 1.0)
+          small[smalls++] = i;
+        else
+          large[larges++] = i;
+
+      while (smalls > 0 && larges > 0) {
+        int l = small[--smalls];
+        int g = large[--larges];
+        probability[l] = p[l];
+        alias[l] = g;
+        p[g] = (p[g] + p[l]) - 1.0;
+        if (p[g] < 1.0)
+          small[smalls++] = g;
+        else
+          large[larges++] = g;
+      }
+      while (larges > 0)
+        probability[large[--larges]] = 1.0;
+      while (smalls > 0)
+        probability[small[--smalls]] = 1.0;
+    }
+
+    int sample(Random random) {
+      int i = random.nextInt(probability.length);
+      return (random.nextDouble() < probability[i]) ? i : alias[i];
+    }
+  }
+}
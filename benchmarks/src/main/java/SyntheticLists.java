@@ -0,0 +1,108 @@
+/**
+ *  SyntheticLists makes inverted lists and score lists for benchmarks
+ *  that run without an index.  Docids are sampled uniformly from the
+ *  collection, term frequencies follow Zipf's law, and positions are
+ *  sampled uniformly from a fixed document length.  Generators that
+ *  have the same seed and are called in the same order make the same
+ *  lists, so benchmark results are reproducible.
+ */
+
+import java.util.*;
+
+public class SyntheticLists {
+
+  //  Term frequencies are 1..MAX_TF, with P(tf) proportional to
+  //  1 / tf^TF_SKEW, so most postings have tf 1 or 2.
+
+  private static final int MAX_TF = 64;
+  private static final double TF_SKEW = 2.0;
+
+  private final Random random;
+  private final int numDocs;
+  private final int docLength;
+  private final double[] tfCdf;
+
+  /**
+   *  @param seed The random seed.
+   *  @param numDocs The number of documents in the collection.
+   *  @param docLength The length of every document.
+   */
+  public SyntheticLists(long seed, int numDocs, int docLength) {
+    this.random = new Random(seed);
+    this.numDocs = numDocs;
+    this.docLength = docLength;
+
+    int maxTf = Math.min(MAX_TF, docLength);
+    this.tfCdf = new double[maxTf];
+    double sum = 0;
+    for (int tf = 1; tf <= maxTf; tf++) {
+      sum += 1.0 / Math.pow(tf, TF_SKEW);
+      tfCdf[tf - 1] = sum;
+    }
+    for (int i = 0; i < maxTf; i++)
+      tfCdf[i] /= sum;
+  }
+
+  /**
+   *  The length of the i'th of several lists whose lengths follow
+   *  Zipf's law.
+   *  @param longest The length of the first (longest) list.
+   *  @param i The list, from 0.
+   *  @param s The Zipf exponent.  0 makes every list the same length.
+   *  @return longest / (i + 1)^s, and at least 1.
+   */
+  public static int zipfLength(int longest, int i, double s) {
+    return Math.max(1, (int) (longest / Math.pow(i + 1, s)));
+  }
+
+  /**
+   *  An inverted list.
+   *  @param field The list's field.
+   *  @param n The number of postings.  At most numDocs.
+   *  @return The list.
+   */
+  public InvList invList(String field, int n) {
+    int[] docids = sample(n, numDocs);
+    int[] positions = new int[tfCdf.length];
+    InvList list = new InvList(field, n, 2 * n);
+
+    for (int docid : docids) {
+      int tf = tf();
+      int[] sample = sample(tf, docLength);
+      System.arraycopy(sample, 0, positions, 0, tf);
+      list.appendPosting(docid, positions, 0, tf);
+    }
+    return list;
+  }
+
+  /**
+   *  A score list in docid order.  Scores are uniform in (0, 1), so
+   *  they can be used by every retrieval model, and ties are unlikely.
+   *  @param n The number of documents.  At most numDocs.
+   *  @return The list.
+   */
+  public ScoreList scoreList(int n) {
+    int[] docids = sample(n, numDocs);
+    ScoreList list = new ScoreList(n, false);
+    for (int docid : docids)
+      list.add(docid, 1.0 - random.nextDouble());
+    return list;
+  }
+
+  //  n distinct integers from 0..range-1, in ascending order
+  //  (selection sampling, Knuth's Algorithm S).
+
+  private int[] sample(int n, int range) {
+    int[] result = new int[n];
+    int m = 0;
+    for (int i = 0; i < range && m < n; i++)
+      if ((range - i) * random.nextDouble() < n - m)
+        result[m++] = i;
+    return result;
+  }
+
+  private int tf() {
+    int i = Arrays.binarySearch(tfCdf, random.nextDouble());
+    return (i >= 0) ? i + 1 : Math.min(-i, tfCdf.length);
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ *  TokenizeWorkload runs QryEval.tokenizeQuery (lower-casing, stopword
+ *  removal and KStem) over synthetic queries.  Query words are drawn
+ *  from a small vocabulary of stopwords and inflected words, so every
+ *  stage of the analyzer has work to do.  The parameters are:
+ *
+ *  queries:  The number of queries, all tokenized by each run.
+ *
+ *  words:  The number of words in each query.
+ *
+ *  seed:  The random seed.
+ */
+
+import java.util.*;
+
+import qryeval.jmh.Workload;
+
+public class TokenizeWorkload implements Workload {
+
+  private static final String[] VOCABULARY = {
+    "the", "of", "and", "in", "for", "with", "Obama", "family", "tree",
+    "Cheap", "internet", "lower", "heart", "rates", "living", "India",
+    "creek", "farms", "running", "shoes", "Universities", "studies",
+    "computers", "networked", "Pittsburgh", "weather", "forecasts",
+    "recipes", "baked", "potatoes", "dogs", "cat's", "history", "wars"
+  };
+
+  private String[] queries;
+
+  public void setup(Map<String, String> params) throws Exception {
+    Random random = new Random(Long.parseLong(params.get("seed")));
+    int n = Integer.parseInt(params.get("queries"));
+    int words = Integer.parseInt(params.get("words"));
+
+    queries = new String[n];
+    for (int i = 0; i < n; i++) {
+      StringBuilder query = new StringBuilder();
+      for (int j = 0; j < words; j++) {
+        if (j > 0)
+          query.append(' ');
+        query.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+      }
+      queries[i] = query.toString();
+    }
+  }
+
+  public Object run() throws Exception {
+    int tokens = 0;
+    for (String query : queries)
+      tokens += QryEval.tokenizeQuery(query).length;
+    return tokens;
+  }
+}
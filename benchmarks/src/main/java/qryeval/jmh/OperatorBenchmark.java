@@ -0,0 +1,55 @@
+/**
+ *  Term-at-a-time evaluation of each query operator over synthetic
+ *  argument lists (see OperatorWorkload).  The arguments' lengths
+ *  follow Zipf's law:  the i'th argument has postings / (i + 1)^zipf
+ *  postings.
+ */
+
+package qryeval.jmh;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class OperatorBenchmark {
+
+  @Param({ "AND", "AND_INDRI", "OR", "SUM", "SYN", "NEAR", "WINDOW" })
+  public String op;
+
+  @Param({ "1000", "100000" })
+  public int postings;
+
+  @Param({ "3" })
+  public int args;
+
+  @Param({ "1.0" })
+  public double zipf;
+
+  @Param({ "42" })
+  public long seed;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("op", op);
+    params.put("postings", Integer.toString(postings));
+    params.put("args", Integer.toString(args));
+    params.put("zipf", Double.toString(zipf));
+    params.put("seed", Long.toString(seed));
+    workload = Workloads.load("OperatorWorkload", params);
+  }
+
+  @Benchmark
+  public Object evaluate() throws Exception {
+    return workload.run();
+  }
+}
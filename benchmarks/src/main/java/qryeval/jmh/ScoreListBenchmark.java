@@ -0,0 +1,57 @@
+/**
+ *  ScoreList merging and top-k selection over synthetic score lists
+ *  (see ScoreListWorkload).
+ */
+
+package qryeval.jmh;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class ScoreListBenchmark {
+
+  @Param({ "MERGE2", "MERGEK", "TOPK" })
+  public String op;
+
+  @Param({ "1000", "100000" })
+  public int postings;
+
+  @Param({ "8" })
+  public int lists;
+
+  @Param({ "100" })
+  public int k;
+
+  @Param({ "1.0" })
+  public double zipf;
+
+  @Param({ "42" })
+  public long seed;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("op", op);
+    params.put("postings", Integer.toString(postings));
+    params.put("lists", Integer.toString(lists));
+    params.put("k", Integer.toString(k));
+    params.put("zipf", Double.toString(zipf));
+    params.put("seed", Long.toString(seed));
+    workload = Workloads.load("ScoreListWorkload", params);
+  }
+
+  @Benchmark
+  public Object run() throws Exception {
+    return workload.run();
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ *  QryEval.tokenizeQuery over a fixed set of synthetic queries (see
+ *  TokenizeWorkload).  Each invocation tokenizes every query once.
+ */
+
+package qryeval.jmh;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class TokenizeBenchmark {
+
+  @Param({ "100" })
+  public int queries;
+
+  @Param({ "4" })
+  public int words;
+
+  @Param({ "42" })
+  public long seed;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("queries", Integer.toString(queries));
+    params.put("words", Integer.toString(words));
+    params.put("seed", Long.toString(seed));
+    workload = Workloads.load("TokenizeWorkload", params);
+  }
+
+  @Benchmark
+  public Object tokenize() throws Exception {
+    return workload.run();
+  }
+}
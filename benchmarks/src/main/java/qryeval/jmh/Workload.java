@@ -0,0 +1,31 @@
+/**
+ *  A Workload is the code that one benchmark measures.
+ *
+ *  QryEval's classes are in the default package, which classes in a
+ *  named package can't refer to, and JMH benchmarks must be in a named
+ *  package.  So each benchmark loads its workload, a default-package
+ *  class, by name, and calls it through this interface.  A workload
+ *  builds its data in setup, so run measures only the code under test.
+ */
+
+package qryeval.jmh;
+
+import java.util.*;
+
+public interface Workload {
+
+  /**
+   *  Build the workload's data.
+   *  @param params The benchmark's parameters, by name.
+   *  @throws Exception
+   */
+  void setup(Map<String, String> params) throws Exception;
+
+  /**
+   *  Run the measured code once.
+   *  @return The code's result, which the benchmark returns so that
+   *          the JIT can't remove the work.
+   *  @throws Exception
+   */
+  Object run() throws Exception;
+}
@@ -0,0 +1,29 @@
+/**
+ *  Workloads loads the default-package workload classes by name.
+ */
+
+package qryeval.jmh;
+
+import java.util.*;
+
+public class Workloads {
+
+  private Workloads() {
+  }
+
+  /**
+   *  Create a workload and build its data.
+   *  @param className The workload's class, in the default package.
+   *  @param params The benchmark's parameters, by name.
+   *  @return The workload.
+   *  @throws Exception
+   */
+  public static Workload load(String className, Map<String, String> params)
+    throws Exception {
+    Workload workload =
+      (Workload) Class.forName(className).getDeclaredConstructor()
+      .newInstance();
+    workload.setup(params);
+    return workload;
+  }
+}
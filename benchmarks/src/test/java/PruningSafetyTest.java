@@ -0,0 +1,120 @@
+/**
+ *  PruningSafetyTest checks that WAND and Block-Max WAND return the
+ *  same top k documents as exhaustive document-at-a-time evaluation.
+ *  It searches a small SyntheticIndex whose most frequent terms are in
+ *  more than half of the documents, so their BM25 idf, and their
+ *  precomputed block-max bounds, are negative.  Every query has one of
+ *  those terms, and the other terms have a range of dfs.
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.*;
+
+public class PruningSafetyTest {
+
+  private static final int NUM_DOCS = 3000;
+  private static final int NUM_QUERIES = 50;
+  private static final int[] K = { 1, 10, 100 };
+
+  private static File dir;
+  private static IndexReader reader;
+  private static SearchContext wand;
+  private static SearchContext blockMax;
+  private static List<String> frequent = new ArrayList<String>();
+  private static List<String> others = new ArrayList<String>();
+
+  @BeforeClass
+  public static void buildIndex() throws Exception {
+    dir = File.createTempFile("pruning", "");
+    dir.delete();
+    dir.mkdirs();
+
+    File indexPath = new File(dir, "index");
+    new SyntheticIndex(500, 1.0, 40, 42).writeIndex(indexPath, NUM_DOCS, 1, 1);
+    reader = DirectoryReader.open(FSDirectory.open(indexPath));
+
+    Map<String, String> values = new HashMap<String, String>();
+    values.put("k_1", "1.2");
+    values.put("b", "0.75");
+    values.put("k_3", "0");
+    RetrievalModelBM25 model =
+      (RetrievalModelBM25) QryEval.createModel("BM25", values);
+
+    //  Small blocks, and bounds for every term, so that block-max
+    //  pruning has many blocks to skip.
+
+    File bounds = new File(dir, "blockmax");
+    new BlockMaxIndexBuilder(reader, new DocLengthStore(reader), model.k_1,
+                             model.b, 2500, 0.4, 16, 1).build(bounds);
+
+    Map<String, String> params = new HashMap<String, String>();
+    wand = QryEval.createSearchContext(reader, params).withModel(model);
+    params.put("blockMax:path", bounds.getPath());
+    blockMax = QryEval.createSearchContext(reader, params).withModel(model);
+
+    TermsEnum terms = MultiFields.getTerms(reader, "body").iterator(null);
+    for (BytesRef term; (term = terms.next()) != null; ) {
+      if (terms.docFreq() > NUM_DOCS / 2)
+        frequent.add(term.utf8ToString());
+      else
+        others.add(term.utf8ToString());
+    }
+  }
+
+  @AfterClass
+  public static void deleteIndex() throws IOException {
+    if (reader != null)
+      reader.close();
+    delete(dir);
+  }
+
+  @Test
+  public void indexHasNegativeIdfTerms() {
+    assertTrue(frequent.size() >= 2);
+    assertFalse(others.isEmpty());
+  }
+
+  @Test
+  public void prunedTopKIsExhaustiveTopK() throws IOException {
+    Random random = new Random(42);
+
+    for (int q = 1; q <= NUM_QUERIES; q++) {
+      StringBuilder query =
+        new StringBuilder(frequent.get(random.nextInt(frequent.size())));
+      for (int n = 1 + random.nextInt(3); n > 0; n--) {
+        List<String> words = (random.nextInt(3) == 0) ? frequent : others;
+        query.append(' ').append(words.get(random.nextInt(words.size())));
+      }
+
+      for (int k : K) {
+        String expected = topK(query.toString(), wand, "none", k);
+        assertEquals(query + " k=" + k, expected,
+                     topK(query.toString(), wand, "wand", k));
+        assertEquals(query + " k=" + k + " block-max", expected,
+                     topK(query.toString(), blockMax, "wand", k));
+      }
+    }
+  }
+
+  private static String topK(String query, SearchContext ctx, String pruning,
+                             int k) throws IOException {
+    QryResult result = QryEval.runQuery("1", query, ctx, true, pruning,
+                                        "none", null, k);
+    return QryEval.printResults("1", query, result, ctx, k);
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null)
+      for (File f : files)
+        delete(f);
+    file.delete();
+  }
+}
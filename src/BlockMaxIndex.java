@@ -0,0 +1,221 @@
+/**
+ *  BlockMaxIndex provides access to a block-max side file built by
+ *  BlockMaxIndexBuilder.  For each indexed term (in each field that
+ *  has document lengths) the file stores the largest BM25 and Indri
+ *  term scores in the term's inverted list, and the largest scores
+ *  in each block of consecutive postings.  Dynamic pruning uses them
+ *  as upper bounds.  Scores are rounded up to floats, so they are
+ *  never smaller than the scores that QryopSlScore computes.
+ *
+ *  The file is memory-mapped and nothing is decoded when it is
+ *  opened, so opening it takes constant time.  Terms are found by
+ *  binary search over a table of record offsets.
+ *
+ *  File layout (big-endian):
+ *
+ *    header:  int magic, int version, double k_1, double b, int mu,
+ *             double lambda, int blockSize, int numTerms,
+ *             long tableOffset
+ *    records: int keyLength, byte[] key, int df, float maxBM25,
+ *             float maxIndri, int numBlocks,
+ *             numBlocks x (int lastDocid, float maxBM25, float maxIndri)
+ *    table:   numTerms x int recordOffset, in key order
+ *
+ *  A key is the UTF-8 field name, a 0 byte, and the UTF-8 term.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class BlockMaxIndex {
+
+  static final int MAGIC = 0x424d4158;		// "BMAX"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 52;
+  static final int BLOCK_ENTRY_SIZE = 12;
+
+  private ByteBuffer buffer;
+  private double k1;
+  private double b;
+  private int mu;
+  private double lambda;
+  private int blockSize;
+  private int numTerms;
+  private int tableOffset;
+
+  /**
+   *  Open a block-max file.
+   *  @param file The file created by BlockMaxIndexBuilder.
+   *  @throws IOException
+   */
+  public BlockMaxIndex(File file) throws IOException {
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+    try {
+      if (raf.length() > Integer.MAX_VALUE)
+        throw new IOException("Block-max file is too large to map: " + file);
+
+      this.buffer =
+        raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+      throw new IOException("Not a block-max file: " + file);
+
+    this.k1 = buffer.getDouble(8);
+    this.b = buffer.getDouble(16);
+    this.mu = buffer.getInt(24);
+    this.lambda = buffer.getDouble(28);
+    this.blockSize = buffer.getInt(36);
+    this.numTerms = buffer.getInt(40);
+    this.tableOffset = (int) buffer.getLong(44);
+  }
+
+  /**
+   *  Returns true if the BM25 bounds were computed with these parameters.
+   */
+  public boolean matchesBM25(double k1, double b) {
+    return this.k1 == k1 && this.b == b;
+  }
+
+  /**
+   *  Returns true if the Indri bounds were computed with these parameters.
+   */
+  public boolean matchesIndri(int mu, double lambda) {
+    return this.mu == mu && this.lambda == lambda;
+  }
+
+  /**
+   *  The number of postings in each block (except the last one).
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   *  The number of terms in the file.
+   */
+  public int getNumTerms() {
+    return numTerms;
+  }
+
+  /**
+   *  Find the bounds of a term.
+   *  @param field The field that the term occurs in.
+   *  @param term The processed (stemmed, lower-cased, etc) term string.
+   *  @return The term's bounds, or null if the term is not in the file.
+   */
+  public Term find(String field, String term) {
+
+    byte[] key;
+
+    try {
+      key = (field + "\u0000" + term).getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+
+    int lo = 0;
+    int hi = numTerms - 1;
+
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int record = buffer.getInt(tableOffset + 4 * mid);
+      int c = compareKey(record, key);
+
+      if (c < 0)
+        lo = mid + 1;
+      else if (c > 0)
+        hi = mid - 1;
+      else
+        return new Term(record);
+    }
+
+    return null;
+  }
+
+  //  Compare the key of a record with a key, as unsigned bytes.
+
+  private int compareKey(int record, byte[] key) {
+    int length = buffer.getInt(record);
+    int n = Math.min(length, key.length);
+
+    for (int i = 0; i < n; i++) {
+      int c = (buffer.get(record + 4 + i) & 0xff) - (key[i] & 0xff);
+      if (c != 0)
+        return c;
+    }
+
+    return length - key.length;
+  }
+
+  /**
+   *  The bounds of one term.  Blocks are numbered from 0; block i
+   *  covers the postings after block i-1, up to and including
+   *  getLastDocid(i).
+   */
+  public class Term {
+
+    private int record;
+    private int blocks;
+
+    private Term(int record) {
+      this.record = record + 4 + buffer.getInt(record);
+      this.blocks = this.record + 16;
+    }
+
+    public int getDf() {
+      return buffer.getInt(record);
+    }
+
+    public float getMaxBM25() {
+      return buffer.getFloat(record + 4);
+    }
+
+    public float getMaxIndri() {
+      return buffer.getFloat(record + 8);
+    }
+
+    public int getNumBlocks() {
+      return buffer.getInt(record + 12);
+    }
+
+    public int getLastDocid(int block) {
+      return buffer.getInt(blocks + BLOCK_ENTRY_SIZE * block);
+    }
+
+    public float getBlockMaxBM25(int block) {
+      return buffer.getFloat(blocks + BLOCK_ENTRY_SIZE * block + 4);
+    }
+
+    public float getBlockMaxIndri(int block) {
+      return buffer.getFloat(blocks + BLOCK_ENTRY_SIZE * block + 8);
+    }
+
+    /**
+     *  Find the block that contains the first posting whose docid is
+     *  >= docid, searching from block from onwards.
+     *  @param docid An internal document id.
+     *  @param from The first block to consider.
+     *  @return The block, or getNumBlocks() if there is no such posting.
+     */
+    public int findBlock(int docid, int from) {
+      int lo = from;
+      int hi = getNumBlocks();
+
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (getLastDocid(mid) < docid)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+
+      return lo;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/**
+ *  BlockMaxIndexBuilder walks every inverted list in the index and
+ *  writes the block-max side file that BlockMaxIndex reads.  It uses
+ *  the same parameter file as QryEval:
+ *
+ *    indexPath=...           The index.
+ *    blockMax:path=...       The file to write.
+ *    blockMax:blockSize=128  Postings per block (optional).
+ *    blockMax:minDf=128      Terms with a smaller df are skipped
+ *                            (optional).  Pruning falls back to
+ *                            weaker bounds for them.
+ *    BM25:k_1, BM25:b        The BM25 parameters.
+ *    Indri:mu, Indri:lambda  The Indri parameters.
+ *
+ *  Scores are computed exactly as QryopSlScore computes them, and
+ *  then rounded up to floats.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.*;
+
+public class BlockMaxIndexBuilder {
+
+  private IndexReader reader;
+  private DocLengthStore doclen;
+  private double k1;
+  private double b;
+  private int mu;
+  private double lambda;
+  private int blockSize;
+  private int minDf;
+
+  //  Per-term working storage, reused for every term.
+
+  private int[] blockLast = new int[16];
+  private float[] blockBM25 = new float[16];
+  private float[] blockIndri = new float[16];
+
+  public BlockMaxIndexBuilder(IndexReader reader, DocLengthStore doclen,
+                              double k1, double b, int mu, double lambda,
+                              int blockSize, int minDf) {
+    this.reader = reader;
+    this.doclen = doclen;
+    this.k1 = k1;
+    this.b = b;
+    this.mu = mu;
+    this.lambda = lambda;
+    this.blockSize = blockSize;
+    this.minDf = minDf;
+  }
+
+  /**
+   *  @param args The only argument is the path to the parameter file.
+   *  @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+
+    if (args.length < 1) {
+      System.err.println("Usage:  java BlockMaxIndexBuilder paramFile");
+      System.exit(1);
+    }
+
+    Map<String, String> params = QryEval.readParameters(args[0]);
+
+    if (!params.containsKey("indexPath") ||
+        !params.containsKey("blockMax:path")) {
+      System.err.println("Error: Parameters were missing.");
+      System.exit(1);
+    }
+
+    IndexReader reader =
+      DirectoryReader.open(FSDirectory.open(new File(params.get("indexPath"))));
+
+    //  Parse the parameters the same way that QryEval does, so that
+    //  BlockMaxIndex.matchesBM25 and matchesIndri succeed.
+
+    int blockSize = params.containsKey("blockMax:blockSize") ?
+      Integer.parseInt(params.get("blockMax:blockSize")) : 128;
+    int minDf = params.containsKey("blockMax:minDf") ?
+      Integer.parseInt(params.get("blockMax:minDf")) : blockSize;
+
+    BlockMaxIndexBuilder builder =
+      new BlockMaxIndexBuilder(reader, new DocLengthStore(reader),
+                               Double.parseDouble(params.get("BM25:k_1")),
+                               Float.parseFloat(params.get("BM25:b")),
+                               Integer.parseInt(params.get("Indri:mu")),
+                               Double.parseDouble(params.get("Indri:lambda")),
+                               blockSize, minDf);
+
+    long start = System.currentTimeMillis();
+    int terms = builder.build(new File(params.get("blockMax:path")));
+    long end = System.currentTimeMillis();
+
+    System.out.println("Terms written: " + terms);
+    System.out.println("Total Running Time:" + (end - start));
+    reader.close();
+  }
+
+  /**
+   *  Build the block-max file.
+   *  @param file The file to write.
+   *  @return The number of terms written.
+   *  @throws IOException
+   */
+  public int build(File file) throws IOException {
+
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+    //  The header is rewritten when the number of terms and the
+    //  table offset are known.
+
+    writeHeader(out, 0, 0);
+    long offset = BlockMaxIndex.HEADER_SIZE;
+
+    int numTerms = 0;
+    int[] recordOffsets = new int[1024];
+
+    //  Keys are compared as unsigned bytes, so visit the fields in
+    //  name order.  Lucene returns each field's terms in byte order.
+
+    List<String> fields = new ArrayList<String>();
+    Fields luceneFields = MultiFields.getFields(reader);
+
+    if (luceneFields != null) {
+      for (String field : luceneFields) {
+        if (MultiDocValues.getNormValues(reader, field) != null)
+          fields.add(field);
+      }
+    }
+
+    Collections.sort(fields);
+
+    Bits liveDocs = MultiFields.getLiveDocs(reader);
+    FieldStats stats = new FieldStats(reader);
+
+    for (String field : fields) {
+
+      Terms terms = MultiFields.getTerms(reader, field);
+      if (terms == null)
+        continue;
+
+      long sumTotalTermFreq = stats.getSumTotalTermFreq(field);
+      int docCount = stats.getDocCount(field);
+      double avgdoclength = stats.getAvgLength(field);
+      byte[] fieldBytes = field.getBytes("UTF-8");
+      DocLengthStore.Lengths lengths = doclen.getLengths(field);
+
+      TermsEnum termsEnum = terms.iterator(null);
+      DocsEnum docs = null;
+      BytesRef term;
+
+      while ((term = termsEnum.next()) != null) {
+
+        int df = termsEnum.docFreq();
+        if (df < minDf)
+          continue;
+
+        //  The same statistics that QryopSlScore uses.
+
+        double idf = Math.log((docCount - df + 0.5)
+                              / (df + 0.5));
+        double pmle = (double) termsEnum.totalTermFreq() / sumTotalTermFreq;
+
+        docs = termsEnum.docs(liveDocs, docs, DocsEnum.FLAG_FREQS);
+
+        int blocks = 0;
+        int inBlock = 0;
+        double termBM25 = Double.NEGATIVE_INFINITY;
+        double termIndri = Double.NEGATIVE_INFINITY;
+        double maxBM25 = Double.NEGATIVE_INFINITY;
+        double maxIndri = Double.NEGATIVE_INFINITY;
+        int last = -1;
+
+        while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          int docid = docs.docID();
+          int tf = docs.freq();
+          long length = lengths.get(docid);
+
+          double ftf = tf / (tf + k1 * (1 - b + b * length / avgdoclength));
+          double bm25 = idf * ftf;
+          double middle = (tf + (mu * pmle)) / (length + mu);
+          double indri = ((1.0 - lambda) * middle) + (lambda * pmle);
+
+          maxBM25 = Math.max(maxBM25, bm25);
+          maxIndri = Math.max(maxIndri, indri);
+          last = docid;
+
+          if (++inBlock == blockSize) {
+            addBlock(blocks++, last, maxBM25, maxIndri);
+            termBM25 = Math.max(termBM25, maxBM25);
+            termIndri = Math.max(termIndri, maxIndri);
+            maxBM25 = maxIndri = Double.NEGATIVE_INFINITY;
+            inBlock = 0;
+          }
+        }
+
+        if (inBlock > 0) {
+          addBlock(blocks++, last, maxBM25, maxIndri);
+          termBM25 = Math.max(termBM25, maxBM25);
+          termIndri = Math.max(termIndri, maxIndri);
+        }
+
+        if (blocks == 0)
+          continue;	// Every posting is deleted.
+
+        if (offset + 20 + fieldBytes.length + 1 + term.length
+            + (long) blocks * BlockMaxIndex.BLOCK_ENTRY_SIZE > Integer.MAX_VALUE)
+          throw new IOException("Block-max file would exceed 2GB; " +
+                                "increase blockMax:minDf.");
+
+        if (numTerms == recordOffsets.length)
+          recordOffsets = Arrays.copyOf(recordOffsets, 2 * numTerms);
+        recordOffsets[numTerms++] = (int) offset;
+
+        int keyLength = fieldBytes.length + 1 + term.length;
+        out.writeInt(keyLength);
+        out.write(fieldBytes);
+        out.writeByte(0);
+        out.write(term.bytes, term.offset, term.length);
+        out.writeInt(df);
+        out.writeFloat(roundUp(termBM25));
+        out.writeFloat(roundUp(termIndri));
+        out.writeInt(blocks);
+
+        for (int i = 0; i < blocks; i++) {
+          out.writeInt(blockLast[i]);
+          out.writeFloat(blockBM25[i]);
+          out.writeFloat(blockIndri[i]);
+        }
+
+        offset += 4 + keyLength + 16 + (long) blocks * BlockMaxIndex.BLOCK_ENTRY_SIZE;
+      }
+    }
+
+    for (int i = 0; i < numTerms; i++)
+      out.writeInt(recordOffsets[i]);
+
+    out.close();
+
+    //  Now the header can be completed.
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      writeHeader(new DataOutputStream(header), numTerms, offset);
+      raf.write(header.toByteArray());
+    } finally {
+      raf.close();
+    }
+
+    return numTerms;
+  }
+
+  private void writeHeader(DataOutputStream out, int numTerms,
+                           long tableOffset) throws IOException {
+    out.writeInt(BlockMaxIndex.MAGIC);
+    out.writeInt(BlockMaxIndex.VERSION);
+    out.writeDouble(k1);
+    out.writeDouble(b);
+    out.writeInt(mu);
+    out.writeDouble(lambda);
+    out.writeInt(blockSize);
+    out.writeInt(numTerms);
+    out.writeLong(tableOffset);
+    out.flush();
+  }
+
+  private void addBlock(int i, int last, double bm25, double indri) {
+    if (i == blockLast.length) {
+      blockLast = Arrays.copyOf(blockLast, 2 * i);
+      blockBM25 = Arrays.copyOf(blockBM25, 2 * i);
+      blockIndri = Arrays.copyOf(blockIndri, 2 * i);
+    }
+    blockLast[i] = last;
+    blockBM25[i] = roundUp(bm25);
+    blockIndri[i] = roundUp(indri);
+  }
+
+  //  The nearest float that is not smaller than x.
+
+  private static float roundUp(double x) {
+    float f = (float) x;
+    return (f < x) ? Math.nextUp(f) : f;
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ *  CursorHeap is a min-heap of cursors (e.g., one per query argument),
+ *  ordered by each cursor's current docid.  Cursors that are on the
+ *  same docid are ordered by cursor number, so a merge that takes
+ *  cursors from the top of the heap visits the arguments of each
+ *  document in argument order.
+ *
+ *  The heap is kept in primitive arrays, so moving a cursor does not
+ *  allocate.  The caller keeps the cursors' positions; the heap only
+ *  knows each cursor's number and current docid.  Any other int key,
+ *  e.g., a term position, can be used in place of the docid.
+ */
+
+public class CursorHeap {
+
+  private int[] cursors;
+  private int[] docids;
+  private int size = 0;
+
+  /**
+   *  Constructor.
+   *  @param capacity The largest number of cursors.
+   */
+  public CursorHeap(int capacity) {
+    this.cursors = new int[capacity];
+    this.docids = new int[capacity];
+  }
+
+  /**
+   *  Add a cursor.
+   *  @param cursor The cursor number.
+   *  @param docid The cursor's current docid.
+   */
+  public void add(int cursor, int docid) {
+    int i = size++;
+    cursors[i] = cursor;
+    docids[i] = docid;
+
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!before(i, parent))
+        break;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  /**
+   *  Remove every cursor, so the heap can be reused.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   *  The number of cursors in the heap.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   *  The cursor that is on the smallest docid.
+   */
+  public int topCursor() {
+    return cursors[0];
+  }
+
+  /**
+   *  The smallest docid of any cursor.
+   */
+  public int topDocid() {
+    return docids[0];
+  }
+
+  /**
+   *  The top cursor moved to a new docid.
+   *  @param docid The cursor's new docid.
+   */
+  public void updateTop(int docid) {
+    docids[0] = docid;
+    siftDown(0);
+  }
+
+  /**
+   *  Remove the top cursor, e.g., because it is exhausted.
+   */
+  public void pop() {
+    size--;
+    cursors[0] = cursors[size];
+    docids[0] = docids[size];
+    siftDown(0);
+  }
+
+  private void siftDown(int i) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size)
+        return;
+      if (child + 1 < size && before(child + 1, child))
+        child++;
+      if (!before(child, i))
+        return;
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  private boolean before(int a, int b) {
+    return (docids[a] < docids[b]) ||
+      (docids[a] == docids[b] && cursors[a] < cursors[b]);
+  }
+
+  private void swap(int a, int b) {
+    int cursor = cursors[a];
+    cursors[a] = cursors[b];
+    cursors[b] = cursor;
+    int docid = docids[a];
+    docids[a] = docids[b];
+    docids[b] = docid;
+  }
+}
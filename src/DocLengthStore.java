@@ -2,9 +2,12 @@
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.HashMap;
 import java.util.Map;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.MultiDocValues;
@@ -12,11 +15,77 @@ import org.apache.lucene.index.MultiFields;
 
 /**
  * DocLengthStore is used to access the document lengths of indexed docs.
+ *
+ * By default lengths are read from the index's norms.  A field's
+ * lengths can also be preloaded into a dense int array, or into a
+ * memory-mapped file outside the Java heap, which is faster for
+ * scoring loops.  Scoring loops should get a field's {@link Lengths}
+ * once and use it for every posting, rather than calling
+ * getDocLength, which looks up the field every time.
+ *
+ * Fields are preloaded before queries are evaluated.  After that the
+ * store is only read, so it can be shared by threads.
  */
 public class DocLengthStore  {
 
+  /**
+   * The lengths of one field, by internal docid.
+   */
+  public static abstract class Lengths {
+
+    /**
+     * Returns the length of the field in a document.
+     * @param docid The internal docid in the lucene index.
+     */
+    public abstract long get(int docid);
+  }
+
+  private static class NormLengths extends Lengths {
+    private NumericDocValues values;
+
+    NormLengths(NumericDocValues values) {
+      this.values = values;
+    }
+
+    public long get(int docid) {
+      return values.get(docid);
+    }
+  }
+
+  private static class ArrayLengths extends Lengths {
+    private int[] lengths;
+
+    ArrayLengths(int[] lengths) {
+      this.lengths = lengths;
+    }
+
+    public long get(int docid) {
+      return lengths[docid];
+    }
+  }
+
+  private static class MappedLengths extends Lengths {
+    private IntBuffer lengths;
+
+    MappedLengths(IntBuffer lengths) {
+      this.lengths = lengths;
+    }
+
+    public long get(int docid) {
+      return lengths.get(docid);
+    }
+  }
+
+  //  Header of a memory-mapped length file:  int magic, int maxDoc,
+  //  long index version.  The lengths follow, one int per document.
+
+  private static final int MAGIC = 0x444c454e;		// "DLEN"
+  private static final int HEADER_SIZE = 16;
+
   private IndexReader reader;
-  private  Map<String, NumericDocValues> values = new HashMap<String, NumericDocValues>();
+  private  Map<String, Lengths> values = new HashMap<String, Lengths>();
+  private long heapBytes = 0;
+  private long mappedBytes = 0;
 
   /**
    * @param reader IndexReader object created in {@link QryEval}.
@@ -24,7 +93,9 @@ public class DocLengthStore  {
   public DocLengthStore(IndexReader reader) throws IOException {
     this.reader = reader;
     for (String field : MultiFields.getIndexedFields(reader)) {
-      this.values.put(field, MultiDocValues.getNormValues(reader, field));      
+      NumericDocValues norms = MultiDocValues.getNormValues(reader, field);
+      if (norms != null)
+        this.values.put(field, new NormLengths(norms));
     }
   }
 
@@ -38,4 +109,147 @@ public class DocLengthStore  {
   public long getDocLength(String fieldname, int docid) throws IOException {
     return values.get(fieldname).get(docid);
   }
+
+  /**
+   * Returns the lengths of the specified field.
+   *
+   * @param fieldname Name of field to access lengths.
+   * @return The field's lengths, or null if the field has none.
+   */
+  public Lengths getLengths(String fieldname) {
+    return values.get(fieldname);
+  }
+
+  /**
+   * Returns true if the field has lengths.
+   */
+  public boolean hasField(String fieldname) {
+    return values.containsKey(fieldname);
+  }
+
+  /**
+   * The number of bytes that preloading one field takes, in the heap
+   * or in a memory-mapped file.
+   */
+  public long getPreloadSize(String fieldname) {
+    return 4L * reader.maxDoc();
+  }
+
+  /**
+   * The number of heap bytes used by preloaded fields.
+   */
+  public long getHeapBytes() {
+    return heapBytes;
+  }
+
+  /**
+   * The number of bytes of memory-mapped length files.
+   */
+  public long getMappedBytes() {
+    return mappedBytes;
+  }
+
+  /**
+   * Copy a field's lengths into an int array in the heap.
+   *
+   * @param fieldname Name of the field.
+   * @return The number of heap bytes used.
+   * @throws IOException
+   */
+  public long preload(String fieldname) throws IOException {
+    checkField(fieldname);
+    Lengths norms = values.get(fieldname);
+    int[] lengths = new int[reader.maxDoc()];
+
+    for (int docid = 0; docid < lengths.length; docid++)
+      lengths[docid] = toInt(fieldname, norms.get(docid));
+
+    values.put(fieldname, new ArrayLengths(lengths));
+    heapBytes += 4L * lengths.length;
+    return 4L * lengths.length;
+  }
+
+  /**
+   * Read a field's lengths from a memory-mapped file, which is outside
+   * the Java heap.  The file is written first if it does not exist or
+   * was written for a different version of the index.
+   *
+   * @param fieldname Name of the field.
+   * @param file The length file.
+   * @return The size of the mapped lengths, in bytes.
+   * @throws IOException
+   */
+  public long preload(String fieldname, File file) throws IOException {
+    checkField(fieldname);
+    int maxDoc = reader.maxDoc();
+    long version = (reader instanceof DirectoryReader) ?
+      ((DirectoryReader) reader).getVersion() : -1;
+    long size = HEADER_SIZE + 4L * maxDoc;
+
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("Too many documents to map lengths: " + file);
+
+    if (!isCurrent(file, maxDoc, version, size))
+      writeLengths(fieldname, file, maxDoc, version);
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    ByteBuffer buffer;
+
+    try {
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      raf.close();
+    }
+
+    buffer.position(HEADER_SIZE);
+    values.put(fieldname, new MappedLengths(buffer.slice().asIntBuffer()));
+    mappedBytes += 4L * maxDoc;
+    return 4L * maxDoc;
+  }
+
+  private void checkField(String fieldname) {
+    if (!hasField(fieldname))
+      throw new IllegalArgumentException("Field " + fieldname +
+                                         " has no document lengths");
+  }
+
+  private static boolean isCurrent(File file, int maxDoc, long version,
+                                   long size) throws IOException {
+    if (version < 0 || !file.exists() || file.length() != size)
+      return false;
+
+    DataInputStream in = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(file)));
+
+    try {
+      return in.readInt() == MAGIC && in.readInt() == maxDoc &&
+        in.readLong() == version;
+    } finally {
+      in.close();
+    }
+  }
+
+  private void writeLengths(String fieldname, File file, int maxDoc,
+                            long version) throws IOException {
+    Lengths norms = values.get(fieldname);
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(maxDoc);
+      out.writeLong(version);
+      for (int docid = 0; docid < maxDoc; docid++)
+        out.writeInt(toInt(fieldname, norms.get(docid)));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static int toInt(String fieldname, long length) throws IOException {
+    if (length < Integer.MIN_VALUE || length > Integer.MAX_VALUE)
+      throw new IOException("Length of field " + fieldname +
+                            " does not fit in an int: " + length);
+    return (int) length;
+  }
 }
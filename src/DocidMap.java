@@ -0,0 +1,315 @@
+/**
+ *  DocidMap maps internal document ids to external document ids (the
+ *  externalId field) and back, without reading stored documents or
+ *  searching the index.  It is a memory-mapped file that is built
+ *  once per index; it is rebuilt automatically if the index changes.
+ *
+ *  Internal to external lookups are array accesses.  Only compare and
+ *  copyExternalId avoid allocation; getExternalId decodes a new String
+ *  on every call, so hot paths (sorting, RunWriter) use the other two.
+ *  External to internal lookups are binary searches over a table of
+ *  docids sorted by external id.
+ *  External ids are compared as UTF-8 bytes, which is the same order
+ *  as String.compareTo for ASCII ids.
+ *
+ *  File layout (big-endian):
+ *
+ *    header:  int magic, int version, long indexVersion, int maxDoc,
+ *             int numSorted
+ *    offsets: (maxDoc + 1) x int, the start of each document's id in
+ *             the pool; a document without an id has length 0
+ *    sorted:  numSorted x int docid, the live documents that have an
+ *             id, in id order
+ *    pool:    the UTF-8 external ids
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.*;
+import org.apache.lucene.util.Bits;
+
+public class DocidMap {
+
+  static final int MAGIC = 0x4449444d;		// "DIDM"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 24;
+
+  private ByteBuffer buffer;
+  private int maxDoc;
+  private int numSorted;
+  private int offsets;
+  private int sorted;
+  private int pool;
+
+  /**
+   *  Open a docid map.
+   *  @param file A file written by build.
+   *  @throws IOException
+   */
+  public DocidMap(File file) throws IOException {
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+    try {
+      this.buffer =
+        raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+      throw new IOException("Not a docid map: " + file);
+
+    this.maxDoc = buffer.getInt(16);
+    this.numSorted = buffer.getInt(20);
+    this.offsets = HEADER_SIZE;
+    this.sorted = offsets + 4 * (maxDoc + 1);
+    this.pool = sorted + 4 * numSorted;
+  }
+
+  /**
+   *  Open the docid map of an index, building it first if the file
+   *  does not exist or was built for a different version of the index.
+   *  @param reader The index.
+   *  @param file The docid map file.
+   *  @return The docid map.
+   *  @throws IOException
+   */
+  public static DocidMap open(IndexReader reader, File file)
+    throws IOException {
+
+    if (!isCurrent(reader, file))
+      build(reader, file);
+
+    return new DocidMap(file);
+  }
+
+  private static boolean isCurrent(IndexReader reader, File file)
+    throws IOException {
+
+    if (!(reader instanceof DirectoryReader) || !file.exists() ||
+        file.length() < HEADER_SIZE)
+      return false;
+
+    DataInputStream in = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(file)));
+
+    try {
+      return in.readInt() == MAGIC && in.readInt() == VERSION &&
+        in.readLong() == ((DirectoryReader) reader).getVersion() &&
+        in.readInt() == reader.maxDoc();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   *  Write the docid map of an index.
+   *  @param reader The index.
+   *  @param file The file to write.
+   *  @throws IOException
+   */
+  public static void build(IndexReader reader, File file) throws IOException {
+
+    int maxDoc = reader.maxDoc();
+    final byte[][] ids = new byte[maxDoc][];
+    Set<String> fields = Collections.singleton("externalId");
+    Bits liveDocs = MultiFields.getLiveDocs(reader);
+    List<Integer> sorted = new ArrayList<Integer>();
+    long poolSize = 0;
+
+    for (int docid = 0; docid < maxDoc; docid++) {
+      Document d = reader.document(docid, fields);
+      String eid = d.get("externalId");
+
+      ids[docid] = (eid == null) ? new byte[0] : eid.getBytes("UTF-8");
+      poolSize += ids[docid].length;
+
+      if (eid != null && (liveDocs == null || liveDocs.get(docid)))
+        sorted.add(docid);
+    }
+
+    if (HEADER_SIZE + 4L * (maxDoc + 1) + 4L * sorted.size() + poolSize
+        > Integer.MAX_VALUE)
+      throw new IOException("Docid map would exceed 2GB");
+
+    Collections.sort(sorted, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return compareBytes(ids[a], ids[b]);
+      }
+    });
+
+    long version = (reader instanceof DirectoryReader) ?
+      ((DirectoryReader) reader).getVersion() : -1;
+
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(version);
+      out.writeInt(maxDoc);
+      out.writeInt(sorted.size());
+
+      int offset = 0;
+      for (int docid = 0; docid < maxDoc; docid++) {
+        out.writeInt(offset);
+        offset += ids[docid].length;
+      }
+      out.writeInt(offset);
+
+      for (int docid : sorted)
+        out.writeInt(docid);
+
+      for (int docid = 0; docid < maxDoc; docid++)
+        out.write(ids[docid]);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   *  The number of documents in the index, including deleted ones.
+   */
+  public int getMaxDoc() {
+    return maxDoc;
+  }
+
+  /**
+   *  Get the external id of a document.  This allocates the id's bytes
+   *  and String; see copyExternalId.
+   *  @param docid An internal document id.
+   *  @return The external id, or null if the document has none.
+   */
+  public String getExternalId(int docid) {
+    int start = start(docid);
+    int length = start(docid + 1) - start;
+
+    if (length == 0)
+      return null;
+
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++)
+      bytes[i] = buffer.get(pool + start + i);
+
+    try {
+      return new String(bytes, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   *  Copy the UTF-8 external id of a document into a buffer.
+   *  @param docid An internal document id.
+   *  @param dst The buffer.  It must have room for the id.
+   *  @param offset Where to copy the id to.
+   *  @return The length of the id in bytes; 0 if it has none.
+   */
+  public int copyExternalId(int docid, byte[] dst, int offset) {
+    int start = start(docid);
+    int length = start(docid + 1) - start;
+
+    for (int i = 0; i < length; i++)
+      dst[offset + i] = buffer.get(pool + start + i);
+
+    return length;
+  }
+
+  /**
+   *  The length of a document's UTF-8 external id, in bytes.
+   */
+  public int getExternalIdLength(int docid) {
+    return start(docid + 1) - start(docid);
+  }
+
+  /**
+   *  Compare the external ids of two documents.
+   *  @return A negative number, zero or a positive number if the id of
+   *    docA is before, the same as, or after the id of docB.
+   */
+  public int compare(int docA, int docB) {
+    int a = start(docA);
+    int aEnd = start(docA + 1);
+    int b = start(docB);
+    int bEnd = start(docB + 1);
+
+    while (a < aEnd && b < bEnd) {
+      int c = (buffer.get(pool + a++) & 0xff) - (buffer.get(pool + b++) & 0xff);
+      if (c != 0)
+        return c;
+    }
+
+    return (aEnd - a) - (bEnd - b);
+  }
+
+  /**
+   *  Find the internal id of a live document.
+   *  @param externalId An external document id.
+   *  @return The internal document id, or -1 if there is no such
+   *    document.
+   */
+  public int getInternalDocid(String externalId) {
+
+    byte[] key;
+
+    try {
+      key = externalId.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+
+    int lo = 0;
+    int hi = numSorted - 1;
+
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int docid = buffer.getInt(sorted + 4 * mid);
+      int c = compareKey(docid, key);
+
+      if (c < 0)
+        lo = mid + 1;
+      else if (c > 0)
+        hi = mid - 1;
+      else
+        return docid;
+    }
+
+    return -1;
+  }
+
+  private int start(int docid) {
+    return buffer.getInt(offsets + 4 * docid);
+  }
+
+  private int compareKey(int docid, byte[] key) {
+    int start = start(docid);
+    int length = start(docid + 1) - start;
+    int n = Math.min(length, key.length);
+
+    for (int i = 0; i < n; i++) {
+      int c = (buffer.get(pool + start + i) & 0xff) - (key[i] & 0xff);
+      if (c != 0)
+        return c;
+    }
+
+    return length - key.length;
+  }
+
+  private static int compareBytes(byte[] a, byte[] b) {
+    int n = Math.min(a.length, b.length);
+
+    for (int i = 0; i < n; i++) {
+      int c = (a[i] & 0xff) - (b[i] & 0xff);
+      if (c != 0)
+        return c;
+    }
+
+    return a.length - b.length;
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ *  FieldStats holds the collection statistics of each indexed field:
+ *  the number of documents that have the field, the total number of
+ *  term occurrences in it, and its average length.  They are read
+ *  from the index once, when it is opened, so scoring code does not
+ *  ask the index for them for every query term.
+ *
+ *  Fields are numbered 0..getNumFields()-1 in name order.  A field's
+ *  ordinal can be used to index per-field arrays.
+ *
+ *  The statistics can also be supplied directly, e.g. statistics for
+ *  a whole collection when the index holds one shard of it.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+
+public class FieldStats {
+
+  private Map<String, Integer> ordinals = new HashMap<String, Integer>();
+  private String[] fields;
+  private int[] docCount;
+  private long[] sumTotalTermFreq;
+  private double[] avgLength;
+
+  /**
+   *  Read the statistics of every indexed field.
+   *  @param reader The index.
+   *  @throws IOException
+   */
+  public FieldStats(IndexReader reader) throws IOException {
+
+    List<String> names =
+      new ArrayList<String>(MultiFields.getIndexedFields(reader));
+    Collections.sort(names);
+
+    int[] docCount = new int[names.size()];
+    long[] sumTotalTermFreq = new long[names.size()];
+
+    for (int i = 0; i < names.size(); i++) {
+      docCount[i] = reader.getDocCount(names.get(i));
+      sumTotalTermFreq[i] = reader.getSumTotalTermFreq(names.get(i));
+    }
+
+    init(names.toArray(new String[names.size()]), docCount, sumTotalTermFreq);
+  }
+
+  /**
+   *  Use precomputed statistics.
+   *  @param fields The field names, in name order.
+   *  @param docCount The number of documents that have each field.
+   *  @param sumTotalTermFreq The number of term occurrences in each field.
+   */
+  public FieldStats(String[] fields, int[] docCount, long[] sumTotalTermFreq) {
+    init(fields.clone(), docCount.clone(), sumTotalTermFreq.clone());
+  }
+
+  private void init(String[] fields, int[] docCount, long[] sumTotalTermFreq) {
+    this.fields = fields;
+    this.docCount = docCount;
+    this.sumTotalTermFreq = sumTotalTermFreq;
+    this.avgLength = new double[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      this.ordinals.put(fields[i], i);
+      this.avgLength[i] = sumTotalTermFreq[i] / (double) docCount[i];
+    }
+  }
+
+  /**
+   *  The number of fields.
+   */
+  public int getNumFields() {
+    return fields.length;
+  }
+
+  /**
+   *  The name of the field that has an ordinal.
+   */
+  public String getField(int ordinal) {
+    return fields[ordinal];
+  }
+
+  /**
+   *  The ordinal of a field, or -1 if the field is not indexed.
+   */
+  public int getOrdinal(String field) {
+    Integer ordinal = ordinals.get(field);
+    return (ordinal == null) ? -1 : ordinal;
+  }
+
+  /**
+   *  Returns true if the field is indexed.
+   */
+  public boolean hasField(String field) {
+    return ordinals.containsKey(field);
+  }
+
+  /**
+   *  The number of documents that have the field, or 0 if the field
+   *  is not indexed.
+   */
+  public int getDocCount(String field) {
+    int i = getOrdinal(field);
+    return (i < 0) ? 0 : docCount[i];
+  }
+
+  /**
+   *  The number of term occurrences in the field, or 0 if the field
+   *  is not indexed.
+   */
+  public long getSumTotalTermFreq(String field) {
+    int i = getOrdinal(field);
+    return (i < 0) ? 0 : sumTotalTermFreq[i];
+  }
+
+  /**
+   *  The average length of the field in the documents that have it.
+   *  NaN if the field is not indexed.
+   */
+  public double getAvgLength(String field) {
+    int i = getOrdinal(field);
+    return (i < 0) ? Double.NaN : avgLength[i];
+  }
+}
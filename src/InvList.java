@@ -4,6 +4,12 @@
  *  Its purpose is to provide a simpler view of inverted lists than
  *  Lucene's native implementation.
  *
+ *  Postings are stored column-wise in primitive arrays:  docids[n]
+ *  and tfs[n] describe the n'th posting, and its positions are the
+ *  tfs[n] entries of the shared positions pool that start at
+ *  posStart[n].  This avoids allocating an object (and a boxed
+ *  Integer per position) for every posting.
+ *
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
@@ -16,40 +22,25 @@ import org.apache.lucene.search.*;
 
 public class InvList {
 
-  //  Utility class that makes it easier to construct postings.
-
-  public class DocPosting {
-
-    public int docid = 0;
-    public int tf = 0;
-    public Vector<Integer> positions = new Vector<Integer>();
-
-    public DocPosting(int d, int... locations) {
-      this.docid = d;
-      this.tf = locations.length;
-      for (int i = 0; i < locations.length; i++)
-        this.positions.add(locations[i]);
-    }
-
-    public DocPosting(int d, List<Integer> locations) {
-      this.docid = d;
-      this.tf = locations.size();
-      for (int i = 0; i < locations.size(); i++)
-        this.positions.add(locations.get(i));
-    }
-  }
-
   //  Class variables.
 
   public int ctf = 0;
   public int df = 0;
   public String field;
-  public Vector<DocPosting> postings = new Vector<DocPosting>();
+
+  //  Posting storage.  Only the first df entries of docids, tfs and
+  //  posStart, and the first ctf entries of positions, are valid.
+
+  private int[] docids;
+  private int[] tfs;
+  private int[] posStart;
+  private int[] positions;
 
   /**
    *  Constructor.  An empty inverted list. Useful for some query operators.
    */
   public InvList() {
+    allocate (0, 0);
   }
 
   /**
@@ -57,15 +48,28 @@ public class InvList {
    */
   public InvList(String fieldString) {
     this.field = new String (fieldString);
+    allocate (0, 0);
+  }
+
+  /**
+   *  Constructor.  An empty inverted list with room for the specified
+   *  number of postings and positions, for operators that know how
+   *  large their result can be.
+   */
+  public InvList(String fieldString, int postings, int locations) {
+    this.field = new String (fieldString);
+    allocate (postings, locations);
   }
 
   /**
    *  Fetch an inverted list from the index.
+   *  @param reader The index.
    *  @param termString The processed (stemmed, lower-cased, etc) term string.
    *  @param fieldString The field that the term occurs in.
    *  @throws IOException
    */
-  public InvList(String termString, String fieldString) throws IOException {
+  public InvList(IndexReader reader, String termString, String fieldString)
+    throws IOException {
 
     //  Store the field name.  This is used by other query operators.
 
@@ -76,14 +80,25 @@ public class InvList {
     BytesRef termBytes = new BytesRef(termString);
     Term term = new Term(fieldString, termBytes);
 
-    if (QryEval.READER.docFreq(term) < 1)
+    int docFreq = reader.docFreq(term);
+
+    if (docFreq < 1) {
+      allocate (0, 0);
       return;
+    }
+
+    //  The index knows the df and ctf of the term, so the arrays can
+    //  be sized exactly.  Deleted documents make the real lists a
+    //  little shorter, never longer.
+
+    long totalTermFreq = reader.totalTermFreq(term);
+    allocate (docFreq, (totalTermFreq < 0) ? docFreq : (int) totalTermFreq);
 
     //  Lookup the inverted list.
 
     DocsAndPositionsEnum iList =
-      MultiFields.getTermPositionsEnum(QryEval.READER,
-				       MultiFields.getLiveDocs(QryEval.READER),
+      MultiFields.getTermPositionsEnum(reader,
+				       MultiFields.getLiveDocs(reader),
 				       fieldString, termBytes);
 
     //  Copy from Lucene inverted list format to our inverted list
@@ -94,48 +109,134 @@ public class InvList {
     while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
 
       int tf = iList.freq();
-      int[] positions = new int[tf];
+
+      ensureCapacity (this.df + 1, this.ctf + tf);
+
+      this.docids[this.df] = iList.docID();
+      this.tfs[this.df] = tf;
+      this.posStart[this.df] = this.ctf;
 
       for (int j = 0; j < tf; j++)
-        positions[j] = iList.nextPosition();
+        this.positions[this.ctf + j] = iList.nextPosition();
 
-      this.postings.add(new DocPosting(iList.docID(), positions));
       this.df++;
       this.ctf += tf;
     }
   }
 
+  /**
+   *  Allocate empty posting storage of the specified size.
+   */
+  private void allocate (int postings, int locations) {
+    this.docids = new int[postings];
+    this.tfs = new int[postings];
+    this.posStart = new int[postings];
+    this.positions = new int[locations];
+  }
+
+  /**
+   *  Make sure that there is room for the specified number of
+   *  postings and positions, growing the arrays if necessary.
+   */
+  private void ensureCapacity (int postings, int locations) {
+
+    if (postings > this.docids.length) {
+      int n = Math.max (postings, this.docids.length + (this.docids.length >> 1) + 8);
+      this.docids = Arrays.copyOf (this.docids, n);
+      this.tfs = Arrays.copyOf (this.tfs, n);
+      this.posStart = Arrays.copyOf (this.posStart, n);
+    }
+
+    if (locations > this.positions.length) {
+      int n = Math.max (locations, this.positions.length + (this.positions.length >> 1) + 8);
+      this.positions = Arrays.copyOf (this.positions, n);
+    }
+  }
+
   /**
    *  Append a posting to the posting list.  Posting must be appended
    *  in docid order, otherwise this method fails.
-   *  @param n The posting internal document id.
-   *  @param positions A list of positions where the term occurs.
+   *  @param docid The posting internal document id.
+   *  @param locations An array that contains the positions where the
+   *         term occurs, in ascending order.
+   *  @param from The index of the first position in locations.
+   *  @param tf The number of positions to copy from locations.
    *  @result true if the posting was added successfully, otherwise false.
    */
-  public boolean appendPosting (int docid, List<Integer> positions) {
-    
+  public boolean appendPosting (int docid, int[] locations, int from, int tf) {
+
     //  A posting can only be appended if its docid is greater than
     //  the last docid.
 
-    if ((this.df > 1) &&
-	(this.postings.get(this.df-1).docid >= docid))
+    if ((this.df > 0) &&
+	(this.docids[this.df-1] >= docid))
       return false;
 
-    DocPosting p = new DocPosting (docid, positions);
+    ensureCapacity (this.df + 1, this.ctf + tf);
+
+    this.docids[this.df] = docid;
+    this.tfs[this.df] = tf;
+    this.posStart[this.df] = this.ctf;
+    System.arraycopy (locations, from, this.positions, this.ctf, tf);
 
-    this.postings.add (p);
     this.df ++;
-    this.ctf += p.tf;
+    this.ctf += tf;
     return true;
   }
 
+  /**
+   *  The number of bytes of the list's arrays, including unused
+   *  capacity.
+   */
+  public long sizeInBytes() {
+    return 4L * (this.docids.length + this.tfs.length +
+                 this.posStart.length + this.positions.length);
+  }
+
   /**
    *  Get the n'th document id from the inverted list.
    *  @param n The index of the requested document.
    *  @return The internal document id.
    */
   public int getDocid(int n) {
-    return this.postings.get(n).docid;
+    return this.docids[n];
+  }
+
+  /**
+   *  Find the first posting at or after index from whose docid is at
+   *  least target.  Galloping search makes skipping far ahead cost
+   *  O(log distance) instead of one step per posting.
+   *  @param from The index to start from.
+   *  @param target The document id to look for.
+   *  @return The index of the posting, or df if there is none.
+   */
+  public int advance(int from, int target) {
+
+    if (from >= this.df || this.docids[from] >= target)
+      return from;
+
+    //  docids[lo] < target.  Double the step until docids[hi] >= target,
+    //  then binary search between them.
+
+    int lo = from;
+    int step = 1;
+    int hi = from + 1;
+
+    while (hi < this.df && this.docids[hi] < target) {
+      lo = hi;
+      step <<= 1;
+      hi = from + step;
+    }
+    hi = Math.min (hi, this.df);
+
+    while (lo + 1 < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (this.docids[mid] < target)
+        lo = mid;
+      else
+        hi = mid;
+    }
+    return hi;
   }
 
   /**
@@ -144,7 +245,40 @@ public class InvList {
    *  @return The document's term frequency.
    */
   public int getTf(int n) {
-    return this.postings.get(n).tf;
+    return this.tfs[n];
+  }
+
+  /**
+   *  Get the j'th position of the term in the n'th document of the
+   *  inverted list.
+   *  @param n The index of the requested document.
+   *  @param j The index of the requested position, 0 <= j < getTf(n).
+   *  @return The position.
+   */
+  public int getPosition(int n, int j) {
+    return this.positions[this.posStart[n] + j];
+  }
+
+  /**
+   *  Position cursor API.  The positions of the n'th document are
+   *  stored in getPositions()[getPositionsStart(n)] through
+   *  getPositions()[getPositionsStart(n) + getTf(n) - 1], in
+   *  ascending order.  The array is shared by all postings and must
+   *  not be modified by the caller.
+   *  @param n The index of the requested document.
+   *  @return The index of the document's first position.
+   */
+  public int getPositionsStart(int n) {
+    return this.posStart[n];
+  }
+
+  /**
+   *  Get the position pool of this inverted list.  See
+   *  {@link #getPositionsStart(int)}.
+   *  @return The position pool.
+   */
+  public int[] getPositions() {
+    return this.positions;
   }
 
   /**
@@ -155,11 +289,11 @@ public class InvList {
     System.out.println("df:  " + this.df + ", ctf: " + this.ctf);
 
     for (int i = 0; i < this.df; i++) {
-      System.out.print("docid:  " + this.postings.elementAt(i).docid + ", tf: "
-          + this.postings.elementAt(i).tf + ", locs: ");
+      System.out.print("docid:  " + this.docids[i] + ", tf: "
+          + this.tfs[i] + ", locs: ");
 
-      for (int j = 0; j < this.postings.elementAt(i).tf; j++) {
-        System.out.print(this.postings.elementAt(i).positions.elementAt(j) + " ");
+      for (int j = 0; j < this.tfs[i]; j++) {
+        System.out.print(getPosition(i, j) + " ");
       }
 
       System.out.println();
@@ -0,0 +1,245 @@
+/**
+ *  A PostingIterator walks an inverted list one document at a time,
+ *  in docid order, without materializing it.  Term frequencies are
+ *  always available; positions are decoded only if the iterator was
+ *  created with positions enabled and the caller asks for them.
+ *
+ *  Score operators that only need docids and term frequencies (e.g.,
+ *  BM25 and Indri term scoring) consume PostingIterators directly.
+ *  Operators that combine positions (e.g., #SYN and #NEAR/n) still
+ *  produce InvLists, which can be viewed as PostingIterators too.
+ */
+
+import java.io.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.*;
+
+public abstract class PostingIterator {
+
+  /**
+   *  Returned by nextDoc, advance and docID when the list is exhausted.
+   */
+  public static final int NO_MORE_DOCS = DocIdSetIterator.NO_MORE_DOCS;
+
+  /**
+   *  The current document id.  -1 before the first call to nextDoc
+   *  or advance, NO_MORE_DOCS after the last document.
+   *  @return The internal document id.
+   */
+  public abstract int docID();
+
+  /**
+   *  Move to the next document.
+   *  @return The new document id, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public abstract int nextDoc() throws IOException;
+
+  /**
+   *  Move to the first document whose id is >= target.  The target
+   *  must be greater than the current document id.
+   *  @param target The document id to advance to.
+   *  @return The new document id, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public abstract int advance(int target) throws IOException;
+
+  /**
+   *  The term frequency in the current document.
+   *  @return The term frequency.
+   *  @throws IOException
+   */
+  public abstract int freq() throws IOException;
+
+  /**
+   *  The next position in the current document.  May be called at
+   *  most freq() times per document.  Positions are returned in
+   *  ascending order.
+   *  @return The position.
+   *  @throws IOException
+   */
+  public abstract int nextPosition() throws IOException;
+
+  /**
+   *  The number of documents in the list.
+   *  @return The document frequency.
+   */
+  public abstract int df();
+
+  /**
+   *  The number of occurrences in the list.
+   *  @return The collection term frequency.
+   */
+  public abstract long ctf();
+
+  /**
+   *  The field that the list is from, or null if it is unknown.
+   *  @return The field name.
+   */
+  public abstract String field();
+
+  /**
+   *  A PostingIterator over an inverted list that is already in memory.
+   */
+  public static class InvListPostings extends PostingIterator {
+
+    private InvList list;
+    private int df;
+    private long ctf;
+    private int n = -1;
+    private int nextPos;
+
+    public InvListPostings(InvList list) {
+      this(list, list.df, list.ctf);
+    }
+
+    /**
+     *  Iterate over a list, but report different statistics for it,
+     *  e.g., the index statistics of a term, which include deleted
+     *  documents.
+     *  @param list The inverted list.
+     *  @param df The document frequency to report.
+     *  @param ctf The collection term frequency to report.
+     */
+    public InvListPostings(InvList list, int df, long ctf) {
+      this.list = list;
+      this.df = df;
+      this.ctf = ctf;
+    }
+
+    public int docID() {
+      if (n < 0)
+        return -1;
+      return (n < list.df) ? list.getDocid(n) : NO_MORE_DOCS;
+    }
+
+    public int nextDoc() {
+      n++;
+      nextPos = 0;
+      return docID();
+    }
+
+    public int advance(int target) {
+      n = list.advance(n + 1, target);
+      nextPos = 0;
+      return docID();
+    }
+
+    public int freq() {
+      return list.getTf(n);
+    }
+
+    public int nextPosition() {
+      return list.getPosition(n, nextPos++);
+    }
+
+    public int df() {
+      return df;
+    }
+
+    public long ctf() {
+      return ctf;
+    }
+
+    public String field() {
+      return list.field;
+    }
+
+    /**
+     *  The list that is iterated over.
+     */
+    public InvList getInvList() {
+      return list;
+    }
+  }
+
+  /**
+   *  A PostingIterator that streams a term's inverted list from the
+   *  index.  If positions are not requested, Lucene is asked for
+   *  docids and frequencies only, so positions are never decoded.
+   *  df and ctf are the index statistics for the term, so they
+   *  include any deleted documents.
+   */
+  public static class IndexPostings extends PostingIterator {
+
+    private String field;
+    private int df;
+    private long ctf;
+    private DocsEnum docs;
+    private DocsAndPositionsEnum positions;
+
+    /**
+     *  Open a term's inverted list.
+     *  @param reader The index.
+     *  @param termString The processed (stemmed, lower-cased, etc) term string.
+     *  @param fieldString The field that the term occurs in.
+     *  @param needPositions True if the caller will call nextPosition.
+     *  @throws IOException
+     */
+    public IndexPostings(IndexReader reader, String termString,
+                         String fieldString, boolean needPositions)
+      throws IOException {
+
+      BytesRef termBytes = new BytesRef(termString);
+      Term term = new Term(fieldString, termBytes);
+
+      this.field = fieldString;
+      this.df = reader.docFreq(term);
+
+      if (this.df < 1)
+        return;
+
+      this.ctf = reader.totalTermFreq(term);
+
+      Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+      if (needPositions) {
+        this.positions =
+          MultiFields.getTermPositionsEnum(reader, liveDocs,
+                                           fieldString, termBytes);
+        this.docs = this.positions;
+      } else {
+        this.docs =
+          MultiFields.getTermDocsEnum(reader, liveDocs, fieldString,
+                                      termBytes, DocsEnum.FLAG_FREQS);
+      }
+    }
+
+    public int docID() {
+      return (docs == null) ? NO_MORE_DOCS : docs.docID();
+    }
+
+    public int nextDoc() throws IOException {
+      return (docs == null) ? NO_MORE_DOCS : docs.nextDoc();
+    }
+
+    public int advance(int target) throws IOException {
+      return (docs == null) ? NO_MORE_DOCS : docs.advance(target);
+    }
+
+    public int freq() throws IOException {
+      return docs.freq();
+    }
+
+    public int nextPosition() throws IOException {
+      if (positions == null)
+        throw new IllegalStateException ("Positions were not requested for " +
+                                         "this list.");
+      return positions.nextPosition();
+    }
+
+    public int df() {
+      return df;
+    }
+
+    public long ctf() {
+      return ctf;
+    }
+
+    public String field() {
+      return field;
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/**
+ *  A PostingsCache keeps the inverted lists of frequently used terms
+ *  in memory, so that queries in a batch that use the same term (in
+ *  the same field) read and decode its list only once.  Unlike a
+ *  PostingsMemo, which belongs to one query, a cache is shared by
+ *  every query and is thread-safe.
+ *
+ *  The cache holds at most maxBytes of lists and evicts the least
+ *  recently used lists first.  Lists can also be pinned, e.g., the
+ *  lists of the terms that have the largest df, which are read when
+ *  the cache is created and are never evicted.
+ *
+ *  Like a memo, the cache keeps the index's df and ctf for each term,
+ *  so scores computed from a cached list are the same as scores
+ *  computed from the index.  Cached lists are shared, so they must not
+ *  be modified.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.util.*;
+
+public class PostingsCache {
+
+  //  Rough size of a map entry, its key and the InvList object.
+
+  private static final long ENTRY_OVERHEAD = 128;
+
+  private static class Entry {
+    InvList list;
+    int df;
+    long ctf;
+    long bytes;
+    boolean pinned;
+  }
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, Entry> entries =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long bytes = 0;
+  private long pinnedBytes = 0;
+  private int pinned = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   *  @param maxBytes The largest number of bytes of cached lists,
+   *         including pinned lists.
+   */
+  public PostingsCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   *  Get a term's inverted list, reading it from the index if it is
+   *  not cached.  The list is shared, so it must not be modified.
+   *  @param reader The index.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @return The inverted list.
+   *  @throws IOException
+   */
+  public InvList getInvList(IndexReader reader, String termString,
+                            String fieldString) throws IOException {
+    return getEntry(reader, termString, fieldString).list;
+  }
+
+  /**
+   *  Get an iterator over a term's postings, reading the inverted list
+   *  from the index if it is not cached.
+   *  @param reader The index.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @return An iterator that reports the index's df and ctf.
+   *  @throws IOException
+   */
+  public PostingIterator.InvListPostings getPostings(IndexReader reader,
+    String termString, String fieldString) throws IOException {
+    Entry e = getEntry(reader, termString, fieldString);
+    return new PostingIterator.InvListPostings(e.list, e.df, e.ctf);
+  }
+
+  /**
+   *  Read and pin the lists of the terms that have the largest df in
+   *  the index's scored fields (fields that have document lengths).
+   *  Pinning stops when the pinned lists fill the cache.
+   *  @param reader The index.
+   *  @param n The number of terms to pin.
+   *  @return The number of lists that were pinned.
+   *  @throws IOException
+   */
+  public int pinTopTerms(IndexReader reader, int n) throws IOException {
+
+    //  A min-heap of the n terms with the largest df seen so far.
+
+    java.util.PriorityQueue<Entry> top =
+      new java.util.PriorityQueue<Entry>(Math.max(n, 1),
+        new Comparator<Entry>() {
+          public int compare(Entry a, Entry b) {
+            return (a.df < b.df) ? -1 : ((a.df == b.df) ? 0 : 1);
+          }
+        });
+    Map<Entry, String[]> names = new IdentityHashMap<Entry, String[]>();
+    Fields fields = MultiFields.getFields(reader);
+
+    if (n <= 0 || fields == null)
+      return 0;
+
+    for (String field : fields) {
+      if (MultiDocValues.getNormValues(reader, field) == null)
+        continue;
+
+      TermsEnum termsEnum = fields.terms(field).iterator(null);
+      BytesRef term;
+
+      while ((term = termsEnum.next()) != null) {
+        int df = termsEnum.docFreq();
+        if (top.size() == n && df <= top.peek().df)
+          continue;
+
+        Entry e = new Entry();
+        e.df = df;
+        top.add(e);
+        names.put(e, new String[] { field, term.utf8ToString() });
+        if (top.size() > n)
+          names.remove(top.poll());
+      }
+    }
+
+    //  Pin the most frequent terms first, in case they don't all fit.
+
+    List<Entry> terms = new ArrayList<Entry>(top);
+    Collections.sort(terms, Collections.reverseOrder(top.comparator()));
+    int count = 0;
+
+    for (Entry t : terms) {
+      String[] name = names.get(t);
+      Entry e = load(reader, name[1], name[0]);
+
+      synchronized (this) {
+        if (pinnedBytes + e.bytes > maxBytes)
+          break;
+
+        e.pinned = true;
+        Entry old = entries.put(key(name[1], name[0]), e);
+        if (old != null) {
+          bytes -= old.bytes;
+          if (old.pinned) {
+            pinnedBytes -= old.bytes;
+            pinned--;
+          }
+        }
+        bytes += e.bytes;
+        pinnedBytes += e.bytes;
+        pinned++;
+        evict();
+      }
+      count++;
+    }
+
+    return count;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   *  The number of cached lists, including pinned lists.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   *  The number of bytes of cached lists, including pinned lists.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   *  A one-line summary of the counters, for logs.
+   */
+  public synchronized String toString() {
+    return "hits=" + hits + " misses=" + misses + " evictions=" +
+      evictions + " entries=" + entries.size() + " pinned=" + pinned +
+      " KB=" + (bytes >> 10) + " pinnedKB=" + (pinnedBytes >> 10) +
+      " maxKB=" + (maxBytes >> 10);
+  }
+
+  //  The list is read without holding the lock, so threads that read
+  //  different lists don't wait for each other.  Two threads that miss
+  //  the same list both read it, and the first one is kept.
+
+  private Entry getEntry(IndexReader reader, String termString,
+                         String fieldString) throws IOException {
+
+    String key = key(termString, fieldString);
+
+    synchronized (this) {
+      Entry e = entries.get(key);
+      if (e != null) {
+        hits++;
+        return e;
+      }
+      misses++;
+    }
+
+    Entry e = load(reader, termString, fieldString);
+
+    synchronized (this) {
+      Entry other = entries.get(key);
+      if (other != null)
+        return other;
+
+      if (e.bytes <= maxBytes - pinnedBytes) {
+        entries.put(key, e);
+        bytes += e.bytes;
+        evict();
+      }
+    }
+
+    return e;
+  }
+
+  private static Entry load(IndexReader reader, String termString,
+                           String fieldString) throws IOException {
+    Term term = new Term(fieldString, new BytesRef(termString));
+
+    Entry e = new Entry();
+    e.list = new InvList(reader, termString, fieldString);
+    e.df = reader.docFreq(term);
+    e.ctf = (e.df < 1) ? 0 : reader.totalTermFreq(term);
+    e.bytes = ENTRY_OVERHEAD +
+      2L * (termString.length() + fieldString.length()) +
+      e.list.sizeInBytes();
+    return e;
+  }
+
+  //  Evict unpinned lists, least recently used first, until the cache
+  //  fits.  The caller holds the lock.
+
+  private void evict() {
+    Iterator<Entry> i = entries.values().iterator();
+    while (bytes > maxBytes && i.hasNext()) {
+      Entry lru = i.next();
+      if (lru.pinned)
+        continue;
+      i.remove();
+      bytes -= lru.bytes;
+      evictions++;
+    }
+  }
+
+  private static String key(String termString, String fieldString) {
+    return fieldString + "\u0000" + termString;
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ *  A PostingsMemo remembers the inverted lists that a query reads
+ *  from the index, so that a query that is evaluated several times
+ *  (e.g., once for each point of a parameter sweep) reads and decodes
+ *  each inverted list only once.
+ *
+ *  The lists are kept with the index's df and ctf for the term, so
+ *  term scores computed from a memorized list are the same as scores
+ *  computed from the index.  A memo is not thread-safe; it belongs to
+ *  one query that is evaluated by one thread.
+ *
+ *  A memo may read lists through a PostingsCache that is shared by
+ *  queries, so that a list that another query has read is not read
+ *  from the index again.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.util.*;
+
+public class PostingsMemo {
+
+  private static class Entry {
+    InvList list;
+    int df;
+    long ctf;
+  }
+
+  private Map<String, Entry> entries = new HashMap<String, Entry>();
+  private final PostingsCache cache;
+
+  /**
+   *  Create a memo that reads lists from the index.
+   */
+  public PostingsMemo() {
+    this(null);
+  }
+
+  /**
+   *  Create a memo that reads lists through a postings cache.
+   *  @param cache The cache, or null to read lists from the index.
+   */
+  public PostingsMemo(PostingsCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   *  Get a term's inverted list, reading it from the cache or the
+   *  index the first time it is requested.  The list is shared, so it must not be
+   *  modified.
+   *  @param reader The index.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @return The inverted list.
+   *  @throws IOException
+   */
+  public InvList getInvList(IndexReader reader, String termString,
+                            String fieldString) throws IOException {
+    return getEntry(reader, termString, fieldString).list;
+  }
+
+  /**
+   *  Get an iterator over a term's postings, reading the inverted list
+   *  from the cache or the index the first time it is requested.
+   *  @param reader The index.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @return An iterator that reports the index's df and ctf.
+   *  @throws IOException
+   */
+  public PostingIterator getPostings(IndexReader reader, String termString,
+                                     String fieldString) throws IOException {
+    Entry e = getEntry(reader, termString, fieldString);
+    return new PostingIterator.InvListPostings(e.list, e.df, e.ctf);
+  }
+
+  /**
+   *  The number of inverted lists in the memo.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  private Entry getEntry(IndexReader reader, String termString,
+                         String fieldString) throws IOException {
+
+    String key = fieldString + "\u0000" + termString;
+    Entry e = entries.get(key);
+
+    if (e == null) {
+      e = new Entry();
+      if (cache != null) {
+        PostingIterator.InvListPostings postings =
+          cache.getPostings(reader, termString, fieldString);
+        e.list = postings.getInvList();
+        e.df = postings.df();
+        e.ctf = postings.ctf();
+      } else {
+        Term term = new Term(fieldString, new BytesRef(termString));
+        e.list = new InvList(reader, termString, fieldString);
+        e.df = reader.docFreq(term);
+        e.ctf = (e.df < 1) ? 0 : reader.totalTermFreq(term);
+      }
+      entries.put(key, e);
+    }
+
+    return e;
+  }
+}
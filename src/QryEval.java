@@ -12,33 +12,22 @@
 import java.io.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 
 import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
-import org.apache.lucene.search.*;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 public class QryEval {
-	static RetrievalModel model;
-	static String usage = "Usage:  java "
-			+ System.getProperty("sun.java.command") + " paramFile\n\n";
 
-	// The index file reader is accessible via a global variable. This
-	// isn't great programming style, but the alternative is for every
-	// query operator to store or pass this value, which creates its
-	// own headaches.
+	// The number of documents that are written for each query.
 
-	public static IndexReader READER;
-	public static DocLengthStore  doclen;
-	public static double k_1;
-	public static double k_3;
-	public static double b;
-	public static int mu;
-	public static double lambda;
+	static final int MAX_RESULTS = 100;
+	static String usage = "Usage:  java "
+			+ System.getProperty("sun.java.command") + " paramFile\n\n";
 
 	// Create and configure an English analyzer that will be used for
 	// query parsing.
@@ -51,6 +40,15 @@ public class QryEval {
 		analyzer.setStemmer(EnglishAnalyzerConfigurable.StemmerType.KSTEM);
 	}
 
+	// printResults formats each query in its thread's buffer, which is
+	// reused for every query.
+
+	private static final ThreadLocal<ByteArrayOutputStream> RESULTS = new ThreadLocal<ByteArrayOutputStream>() {
+		protected ByteArrayOutputStream initialValue() {
+			return new ByteArrayOutputStream(RunWriter.BUFFER_SIZE);
+		}
+	};
+
 	/**
 	 * @param args
 	 *            The only argument is the path to the parameter file.
@@ -66,15 +64,7 @@ public class QryEval {
 
 		// read in the parameter file; one parameter per line in format of
 		// key=value
-		Map<String, String> params = new HashMap<String, String>();
-		Scanner scan = new Scanner(new File(args[0]));
-		String line = null;
-		do {
-			line = scan.nextLine();
-			String[] pair = line.split("=");
-			params.put(pair[0].trim(), pair[1].trim());
-		} while (scan.hasNext());
-		scan.close();
+		Map<String, String> params = readParameters(args[0]);
 
 		// parameters required for this example to run
 		if (!params.containsKey("indexPath")) {
@@ -83,51 +73,98 @@ public class QryEval {
 		}
 
 		// open the index
-		READER = DirectoryReader.open(FSDirectory.open(new File(params
-				.get("indexPath"))));
+		IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(
+				params.get("indexPath"))));
 
-		if (READER == null) {
+		if (reader == null) {
 			System.err.println(usage);
 			System.exit(1);
 		}
 
-		doclen = new DocLengthStore(READER);
-		if (params.get("retrievalAlgorithm").equals("UnrankedBoolean")) {
-			model = new RetrievalModelUnrankedBoolean();
-		} else if (params.get("retrievalAlgorithm").equals("RankedBoolean"))
-		 {
-			model = new RetrievalModelRankedBoolean();
-		}
-		else if (params.get("retrievalAlgorithm").equals("BM25")){
-			model = new RetrievalModelBM25();
-			
-			b = Float.parseFloat(params.get("BM25:b")); 
-			k_1 = Double.parseDouble(params.get("BM25:k_1")); 
-			k_3 = Double.parseDouble(params.get("BM25:k_3")); 
+		SearchContext index = createSearchContext(reader, params);
+
+		// With server:port, queries are answered over HTTP (see
+		// QueryServer) until the process is stopped, instead of being read
+		// from the query file.
+
+		if (params.containsKey("server:port")) {
+			int port = new QueryServer(index, params).start();
+			System.out.println("Listening on http://localhost:" + port
+					+ "/search");
+			return;
 		}
-		else if (params.get("retrievalAlgorithm").equals("Indri")){
-			
-			model = new RetrievalModelIndri();	
-			lambda = Double.parseDouble(params.get("Indri:lambda")); 
-			mu = Integer.parseInt(params.get("Indri:mu")); 	
+
+		// Each model parameter may have a comma-separated list of values,
+		// e.g. BM25:b=0.25,0.5,0.75. Then every combination of the values
+		// (a parameter sweep) is evaluated, and the results for each
+		// combination are written to trecEvalOutputPath followed by the
+		// swept parameter values. The retrieval models are not changed
+		// after this point, so queries can share them.
+
+		String algorithm = params.get("retrievalAlgorithm");
+		List<Map<String, String>> grid = parameterGrid(algorithm, params);
+		final SearchContext[] contexts = new SearchContext[grid.size()];
+		String[] outputPaths = new String[grid.size()];
+
+		for (int i = 0; i < grid.size(); i++) {
+			contexts[i] = index.withModel(createModel(algorithm, grid.get(i)));
+			outputPaths[i] = params.get("trecEvalOutputPath");
+			for (String name : grid.get(i).keySet())
+				if (params.get(algorithm + ":" + name).indexOf(',') >= 0)
+					outputPaths[i] += "-" + name + "=" + grid.get(i).get(name);
 		}
 
+		// Queries are evaluated term-at-a-time unless document-at-a-time
+		// evaluation is requested.
+
+		final boolean daat = "daat".equalsIgnoreCase(params.get("evaluationMode"));
+
+		// BM25 #SUM queries can be evaluated with WAND dynamic pruning.
+		// "compare" also evaluates them exhaustively and reports any
+		// difference in the results.
+
+		String pruning = params.get("BM25:pruning");
+		if (pruning == null)
+			pruning = "none";
+		pruning = pruning.toLowerCase();
+		if (!pruning.equals("none") && !pruning.equals("wand")
+				&& !pruning.equals("compare"))
+			fatalError("Error: Unknown BM25:pruning value " + pruning);
+		final String pruningMode = pruning;
+
+		// Query trees can be compiled into DAGs, so that identical subtrees
+		// are evaluated once per query. "dump" also prints each DAG.
+
+		String dag = params.get("queryDag");
+		if (dag == null)
+			dag = "none";
+		dag = dag.toLowerCase();
+		if (!dag.equals("none") && !dag.equals("compile")
+				&& !dag.equals("dump"))
+			fatalError("Error: Unknown queryDag value " + dag);
+		final String dagMode = dag;
+
+		// Runs are written in trec_eval format unless another format is
+		// requested (see RunWriter).
+
+		String format = params.get("trecEvalOutputFormat");
+		if (format == null)
+			format = "trec";
+		format = format.toLowerCase();
+		if (!RunWriter.isFormat(format))
+			fatalError("Error: Unknown trecEvalOutputFormat value " + format);
+
+		// Queries are independent, so several can be evaluated at once.
+		// The results are still written in query file order.
+
+		int numThreads = 1;
+		if (params.containsKey("numThreads"))
+			numThreads = Integer.parseInt(params.get("numThreads"));
+		if (numThreads < 1)
+			fatalError("Error: numThreads must be at least 1");
+
 		// Store the Query
-		Map<String, String> map = new LinkedHashMap<String, String>();
-		try {
-			BufferedReader br = new BufferedReader(new FileReader(
-					params.get("queryFilePath")));
-			String str = null;
-			while ((str = br.readLine()) != null) {
-				str = str.trim();
-				String text[] = str.split(":");
-				map.put(text[0], text[1]);
-			}
-			br.close();
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		Map<String, String> map = readQueries(params.get("queryFilePath"));
 
 		/*
 		 * The code below is an unorganized set of examples that show you
@@ -200,25 +237,60 @@ public class QryEval {
 		 * to work on QryEval.
 		 */
 		// TODO write the result into the file;
-		BufferedWriter writer = null;
+		RunWriter[] writers = new RunWriter[contexts.length];
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		// Each query's evaluation can be profiled. The profiles are
+		// written as JSON, one line per query and configuration.
+
+		Writer profile = null;
 
 		try {
-			writer = new BufferedWriter(new FileWriter(new File(
-					params.get("trecEvalOutputPath"))));
-			for (String queryNum : map.keySet()) {
-				Qryop qTree;
-				String query = map.get(queryNum);
+			for (int i = 0; i < contexts.length; i++)
+				writers[i] = new RunWriter(new FileOutputStream(
+						outputPaths[i]), format, true);
+			if (params.containsKey("profile:outputPath"))
+				profile = new BufferedWriter(new FileWriter(new File(
+						params.get("profile:outputPath"))));
+			final Writer profileOut = profile;
+
+			List<Future<ScoreList[]>> results = new ArrayList<Future<ScoreList[]>>();
+			for (final String queryNum : map.keySet()) {
+				final String query = map.get(queryNum);
 				System.out.println(query);
-				qTree = parseQuery(query);
-				String k = printResults(queryNum, query, qTree.evaluate(model));
-				writer.write(k);
+				results.add(executor.submit(new Callable<ScoreList[]>() {
+					public ScoreList[] call() throws IOException {
+						return evaluateQuery(queryNum, query, contexts, daat,
+								pruningMode, dagMode, profileOut);
+					}
+				}));
 			}
 
+			// The runs' writer threads write the output while the next
+			// queries are evaluated.
+
+			int q = 0;
+			for (String queryNum : map.keySet()) {
+				ScoreList[] runs = results.get(q++).get();
+				for (int i = 0; i < runs.length; i++)
+					writers[i].write(queryNum, runs[i], contexts[i]);
+			}
+
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			executor.shutdownNow();
+			for (int i = 0; i < writers.length; i++) {
+				try {
+					writers[i].close();
+				} catch (Exception e) {
+				}
+			}
 			try {
-				writer.close();
+				if (profile != null)
+					profile.close();
 			} catch (Exception e) {
 			}
 		}
@@ -226,11 +298,449 @@ public class QryEval {
 		// Later HW assignments will use more RAM, so you want to be aware
 		// of how much memory your program uses.
 		long end = System.currentTimeMillis();
+		if (index.getResultCache() != null)
+			System.out.println("Result cache: " + index.getResultCache());
+		if (index.getPostingsCache() != null)
+			System.out.println("Postings cache: " + index.getPostingsCache());
 		System.out.println("Total Running Time:" + (long) (end - start));
 		printMemoryUsage(true);
 
 	}
 
+	/**
+	 * Evaluate one query with each of several configurations. If there is
+	 * more than one, the configurations share the inverted lists that the
+	 * query reads, so each list is read from the index only once.
+	 * 
+	 * @param queryNum
+	 *            The query number.
+	 * @param query
+	 *            The query string.
+	 * @param contexts
+	 *            The search contexts, one per configuration.
+	 * @param daat
+	 *            True to evaluate the query document-at-a-time.
+	 * @param pruning
+	 *            The BM25:pruning mode: none, wand or compare.
+	 * @param dagMode
+	 *            The queryDag mode: none, compile or dump.
+	 * @param profileOut
+	 *            Where to write the query's profiles, or null.
+	 * @return The MAX_RESULTS best documents for each configuration, in
+	 *         rank order.
+	 * @throws IOException
+	 */
+	static ScoreList[] evaluateQuery(String queryNum, String query,
+			SearchContext[] contexts, boolean daat, String pruning,
+			String dagMode, Writer profileOut) throws IOException {
+
+		PostingsMemo memo = (contexts.length > 1) ? new PostingsMemo(
+				contexts[0].getPostingsCache()) : null;
+		ScoreList[] results = new ScoreList[contexts.length];
+
+		for (int i = 0; i < contexts.length; i++) {
+			SearchContext ctx = contexts[i].withPostingsMemo(memo);
+			results[i] = rankResults(runQuery(queryNum, query, ctx, daat,
+					pruning, dagMode, profileOut, MAX_RESULTS), ctx,
+					MAX_RESULTS);
+		}
+		return results;
+	}
+
+	/**
+	 * Evaluate one query and format its results. This uses no shared
+	 * mutable state, so queries can be evaluated concurrently.
+	 * 
+	 * @param queryNum
+	 *            The query number.
+	 * @param query
+	 *            The query string.
+	 * @param ctx
+	 *            The search context.
+	 * @param daat
+	 *            True to evaluate the query document-at-a-time.
+	 * @param pruning
+	 *            The BM25:pruning mode: none, wand or compare.
+	 * @param dagMode
+	 *            The queryDag mode: none, compile or dump.
+	 * @param profileOut
+	 *            Where to write the query's profile, or null to not
+	 *            profile it. Several queries may write to it at once.
+	 * @return The query's trec_eval output.
+	 * @throws IOException
+	 */
+	static String evaluateQuery(String queryNum, String query,
+			SearchContext ctx, boolean daat, String pruning, String dagMode,
+			Writer profileOut) throws IOException {
+
+		QryResult result = runQuery(queryNum, query, ctx, daat, pruning,
+				dagMode, profileOut, MAX_RESULTS);
+		return printResults(queryNum, query, result, ctx, MAX_RESULTS);
+	}
+
+	/**
+	 * Evaluate one query. This uses no shared mutable state, so queries
+	 * can be evaluated concurrently.
+	 * 
+	 * @param queryNum
+	 *            The query number.
+	 * @param query
+	 *            The query string.
+	 * @param ctx
+	 *            The search context.
+	 * @param daat
+	 *            True to evaluate the query document-at-a-time.
+	 * @param pruning
+	 *            The BM25:pruning mode: none, wand or compare.
+	 * @param dagMode
+	 *            The queryDag mode: none, compile or dump.
+	 * @param profileOut
+	 *            Where to write the query's profile, or null to not
+	 *            profile it. Several queries may write to it at once.
+	 * @param k
+	 *            The number of results that will be used.
+	 *            Document-at-a-time evaluation only keeps the best k.
+	 * @return The query's result.
+	 * @throws IOException
+	 */
+	static QryResult runQuery(String queryNum, String query,
+			SearchContext ctx, boolean daat, String pruning, String dagMode,
+			Writer profileOut, int k) throws IOException {
+
+		RetrievalModel model = ctx.getModel();
+		Qryop qTree = parseQuery(query, model);
+		if (!dagMode.equals("none")) {
+			QueryDag dag = QueryDag.compile(qTree);
+			if (dagMode.equals("dump"))
+				System.out.print(dag);
+			ctx = ctx.withQueryDag(dag);
+		}
+		QueryProfile profile = null;
+		if (profileOut != null) {
+			profile = new QueryProfile();
+			ctx = ctx.withQueryProfile(profile);
+		}
+		QryResult result;
+		if (!pruning.equals("none") && qTree instanceof QryopBM25Sum
+				&& model instanceof RetrievalModelBM25) {
+			result = evaluateWand((QryopBM25Sum) qTree, ctx, k);
+			if (pruning.equals("compare")) {
+				String pruned = printResults(queryNum, query, result, ctx, k);
+				String exhaustive = printResults(queryNum, query,
+						evaluateDaat((QryopSl) parseQuery(query, model), ctx,
+								k), ctx, k);
+				if (!pruned.equals(exhaustive))
+					System.err.println("Error: Pruned results differ "
+							+ "for query " + queryNum);
+			}
+		} else {
+			if (daat && qTree instanceof QryopSl)
+				result = evaluateDaat((QryopSl) qTree, ctx, k);
+			else
+				result = qTree.evaluateCached(ctx);
+		}
+		if (profile != null)
+			writeProfile(profileOut, queryNum, query, model, qTree, profile);
+		return result;
+	}
+
+	/**
+	 * Write a query's profile as one line of JSON: the query and its
+	 * retrieval model, and the query tree annotated with the statistics
+	 * of each node.
+	 * 
+	 * @param out
+	 *            Where to write the profile.
+	 * @param queryNum
+	 *            The query number.
+	 * @param query
+	 *            The query string.
+	 * @param model
+	 *            The retrieval model.
+	 * @param qTree
+	 *            The query tree that was evaluated.
+	 * @param profile
+	 *            The profile.
+	 * @throws IOException
+	 */
+	static void writeProfile(Writer out, String queryNum, String query,
+			RetrievalModel model, Qryop qTree, QueryProfile profile)
+			throws IOException {
+
+		StringBuilder json = new StringBuilder("{\"query\":");
+		QueryProfile.appendString(json, queryNum);
+		json.append(",\"text\":");
+		QueryProfile.appendString(json, query);
+		json.append(",\"model\":");
+		QueryProfile.appendString(json, model.toString());
+		json.append(",\"tree\":").append(profile.toJson(qTree))
+				.append("}\n");
+
+		// One write, so that lines from concurrent queries don't mix.
+
+		synchronized (out) {
+			out.write(json.toString());
+		}
+	}
+
+	/**
+	 * Create the search context for an index from the parameter file: the
+	 * document lengths and field statistics, and the optional block-max
+	 * score bounds, docid map, result cache and postings cache. The
+	 * context has no retrieval model yet.
+	 * 
+	 * @param reader
+	 *            The index.
+	 * @param params
+	 *            The parameter file's parameters.
+	 * @return The search context.
+	 * @throws IOException
+	 */
+	static SearchContext createSearchContext(IndexReader reader,
+			Map<String, String> params) throws IOException {
+
+		// Precomputed score bounds for dynamic pruning, if the parameter
+		// file names a block-max file.
+
+		BlockMaxIndex blockMax = null;
+		if (params.containsKey("blockMax:path"))
+			blockMax = new BlockMaxIndex(new File(params.get("blockMax:path")));
+
+		// Everything that query evaluation reads is in the search context.
+
+		DocLengthStore doclen = new DocLengthStore(reader);
+		FieldStats fieldStats = new FieldStats(reader);
+		if (params.containsKey("docLengths:preload"))
+			preloadDocLengths(doclen, fieldStats, params);
+
+		SearchContext index = new SearchContext(reader, doclen, fieldStats,
+				null, blockMax);
+
+		// A docid map replaces stored-document reads when results are
+		// sorted and printed. It is built the first time it is used.
+
+		if (params.containsKey("docidMap:path"))
+			index = index.withDocidMap(DocidMap.open(reader, new File(
+					params.get("docidMap:path"))));
+
+		// A result cache lets queries, and the points of a parameter
+		// sweep, share the results of identical query subtrees.
+
+		if (params.containsKey("resultCache:maxMemoryMB")) {
+			ResultCache cache = new ResultCache(Long.parseLong(params
+					.get("resultCache:maxMemoryMB")) << 20);
+			index = index.withResultCache(cache);
+		}
+
+		// A postings cache lets queries share the inverted lists of the
+		// terms that they have in common. The lists of the most frequent
+		// terms can be read and pinned in the cache now.
+
+		if (params.containsKey("postingsCache:maxMemoryMB")) {
+			PostingsCache postingsCache = new PostingsCache(
+					Long.parseLong(params.get("postingsCache:maxMemoryMB")) << 20);
+			if (params.containsKey("postingsCache:pinTopTerms"))
+				System.out.println("Pinned "
+						+ postingsCache.pinTopTerms(reader, Integer
+								.parseInt(params
+										.get("postingsCache:pinTopTerms")))
+						+ " inverted lists");
+			index = index.withPostingsCache(postingsCache);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Preload document lengths for faster scoring. The parameters are:
+	 * 
+	 * docLengths:preload=all, or a comma-separated list of fields.
+	 * 
+	 * docLengths:maxMemoryMB=n (optional) limits the heap used for lengths.
+	 * Fields that don't fit keep reading lengths from the index.
+	 * 
+	 * docLengths:mapDir=dir (optional) keeps the lengths in memory-mapped
+	 * files in dir, outside the heap, instead.
+	 * 
+	 * @param doclen
+	 *            The document lengths.
+	 * @param fieldStats
+	 *            The field statistics, which list the fields.
+	 * @param params
+	 *            The parameter file's parameters.
+	 * @throws IOException
+	 */
+	static void preloadDocLengths(DocLengthStore doclen,
+			FieldStats fieldStats, Map<String, String> params)
+			throws IOException {
+
+		List<String> fields = new ArrayList<String>();
+		if (params.get("docLengths:preload").equalsIgnoreCase("all")) {
+			for (int i = 0; i < fieldStats.getNumFields(); i++)
+				if (doclen.hasField(fieldStats.getField(i)))
+					fields.add(fieldStats.getField(i));
+		} else {
+			for (String field : params.get("docLengths:preload").split(","))
+				fields.add(field.trim());
+		}
+
+		long budget = Long.MAX_VALUE;
+		if (params.containsKey("docLengths:maxMemoryMB"))
+			budget = Long.parseLong(params.get("docLengths:maxMemoryMB")) << 20;
+		String mapDir = params.get("docLengths:mapDir");
+
+		for (String field : fields) {
+			if (!doclen.hasField(field))
+				fatalError("Error: Field " + field
+						+ " has no document lengths to preload.");
+
+			long size = doclen.getPreloadSize(field);
+
+			if (mapDir != null) {
+				doclen.preload(field, new File(mapDir, field + ".len"));
+				System.out.println("Document lengths: " + field + " mapped ("
+						+ (size >> 10) + " KB)");
+			} else if (doclen.getHeapBytes() + size <= budget) {
+				doclen.preload(field);
+				System.out.println("Document lengths: " + field
+						+ " preloaded (" + (size >> 10) + " KB)");
+			} else {
+				System.out.println("Document lengths: " + field
+						+ " not preloaded (" + (size >> 10)
+						+ " KB would exceed docLengths:maxMemoryMB)");
+			}
+		}
+	}
+
+	/**
+	 * Create a retrieval model.
+	 * 
+	 * @param algorithm
+	 *            The retrievalAlgorithm parameter.
+	 * @param values
+	 *            The model's parameters, by name (e.g. k_1).
+	 * @return The retrieval model.
+	 */
+	static RetrievalModel createModel(String algorithm,
+			Map<String, String> values) {
+
+		RetrievalModel model = null;
+		if (algorithm.equals("UnrankedBoolean"))
+			model = new RetrievalModelUnrankedBoolean();
+		else if (algorithm.equals("RankedBoolean"))
+			model = new RetrievalModelRankedBoolean();
+		else if (algorithm.equals("BM25"))
+			model = new RetrievalModelBM25();
+		else if (algorithm.equals("Indri"))
+			model = new RetrievalModelIndri();
+		else
+			fatalError("Error: Unknown retrievalAlgorithm " + algorithm);
+
+		for (Map.Entry<String, String> value : values.entrySet())
+			model.setParameter(value.getKey(), value.getValue());
+		return model;
+	}
+
+	/**
+	 * The names of a retrieval model's parameters. In the parameter file
+	 * they are prefixed by the retrievalAlgorithm, e.g. BM25:k_1.
+	 * 
+	 * @param algorithm
+	 *            The retrievalAlgorithm parameter.
+	 * @return The parameter names.
+	 */
+	static String[] modelParameterNames(String algorithm) {
+		if (algorithm.equals("BM25"))
+			return new String[] { "b", "k_1", "k_3" };
+		if (algorithm.equals("Indri"))
+			return new String[] { "lambda", "mu" };
+		return new String[0];
+	}
+
+	/**
+	 * Expand the retrieval model parameters into a grid. A parameter may
+	 * have a comma-separated list of values; the grid has one point for
+	 * each combination of values.
+	 * 
+	 * @param algorithm
+	 *            The retrievalAlgorithm parameter.
+	 * @param params
+	 *            The parameter file's parameters.
+	 * @return The grid points, each mapping a parameter name to a value.
+	 */
+	static List<Map<String, String>> parameterGrid(String algorithm,
+			Map<String, String> params) {
+
+		List<Map<String, String>> grid = new ArrayList<Map<String, String>>();
+		grid.add(new LinkedHashMap<String, String>());
+
+		for (String name : modelParameterNames(algorithm)) {
+			String values = params.get(algorithm + ":" + name);
+			if (values == null)
+				fatalError("Error: Parameter " + algorithm + ":" + name
+						+ " is missing.");
+
+			List<Map<String, String>> expanded = new ArrayList<Map<String, String>>();
+			for (Map<String, String> point : grid) {
+				for (String value : values.split(",")) {
+					Map<String, String> p = new LinkedHashMap<String, String>(
+							point);
+					p.put(name, value.trim());
+					expanded.add(p);
+				}
+			}
+			grid = expanded;
+		}
+
+		return grid;
+	}
+
+	/**
+	 * Read a parameter file; one parameter per line in format of key=value.
+	 * 
+	 * @param path
+	 *            The path to the parameter file.
+	 * @return The parameters.
+	 * @throws IOException
+	 */
+	static Map<String, String> readParameters(String path) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		Scanner scan = new Scanner(new File(path));
+		String line = null;
+		do {
+			line = scan.nextLine();
+			String[] pair = line.split("=");
+			params.put(pair[0].trim(), pair[1].trim());
+		} while (scan.hasNext());
+		scan.close();
+		return params;
+	}
+
+	/**
+	 * Read a query file; one query per line in format of queryNum:query.
+	 * 
+	 * @param path
+	 *            The path to the query file.
+	 * @return The queries by query number, in file order.
+	 */
+	static Map<String, String> readQueries(String path) {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(path));
+			String str = null;
+			while ((str = br.readLine()) != null) {
+				str = str.trim();
+				String text[] = str.split(":");
+				map.put(text[0], text[1]);
+			}
+			br.close();
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		return map;
+	}
+
 	/**
 	 * Function for analyze query;
 	 */
@@ -250,43 +760,84 @@ public class QryEval {
 	}
 
 	/**
-	 * Get the external document id for a document specified by an internal
-	 * document id. If the internal id doesn't exists, returns null.
+	 * Evaluate a query document-at-a-time. The query tree is compiled into
+	 * score iterators that advance in docid lockstep, and each document is
+	 * scored completely before moving to the next one. Only the best k
+	 * documents (and documents that tie with the k'th) are kept, so no
+	 * intermediate score lists are built.
 	 * 
-	 * @param iid
-	 *            The internal document id of the document.
+	 * @param qTree
+	 *            A query tree.
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operators behave.
+	 * @param k
+	 *            The number of documents to keep.
+	 * @return The best documents, in docid order.
 	 * @throws IOException
 	 */
-	static String getExternalDocid(int iid) throws IOException {
+	static QryResult evaluateDaat(QryopSl qTree, SearchContext ctx, int k)
+			throws IOException {
+
+		QueryProfile profile = ctx.getQueryProfile();
+		if (profile != null)
+			profile.start(qTree);
 
-		Document d = QryEval.READER.document(iid);
-		String eid = d.get("externalId");
-		return eid;
+		ScoreIterator scores = qTree.scoreIterator(ctx);
+		TopKCollector topK = new TopKCollector(k);
+		long scored = 0;
+
+		while (scores.nextDoc() != ScoreIterator.NO_MORE_DOCS) {
+			topK.collect(scores.docID(), scores.score());
+			scored++;
+		}
+
+		QryResult result = new QryResult();
+		result.docScores = topK.toScoreList();
+		if (profile != null) {
+			profile.addDocumentsScored(scored);
+			profile.end(qTree, result);
+		}
+		return result;
 	}
 
 	/**
-	 * Finds the internal document id for a document specified by its external
-	 * id, e.g. clueweb09-enwp00-88-09710. If no such document exists, it throws
-	 * an exception.
+	 * Evaluate a BM25 #SUM query document-at-a-time with WAND dynamic
+	 * pruning. The results are the same as for evaluateDaat, but documents
+	 * that can't enter the top k are skipped without being scored. The
+	 * number of documents that were scored is recorded in the query
+	 * profile, if there is one.
 	 * 
-	 * @param externalId
-	 *            The external document id of a document.s
-	 * @return An internal doc id suitable for finding document vectors etc.
-	 * @throws Exception
+	 * @param qTree
+	 *            A query tree.
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operators behave.
+	 * @param k
+	 *            The number of documents to keep.
+	 * @return The best documents, in docid order.
+	 * @throws IOException
 	 */
-	static int getInternalDocid(String externalId) throws Exception {
-		Query q = new TermQuery(new Term("externalId", externalId));
+	static QryResult evaluateWand(QryopBM25Sum qTree, SearchContext ctx,
+			int k)
+			throws IOException {
 
-		IndexSearcher searcher = new IndexSearcher(QryEval.READER);
-		TopScoreDocCollector collector = TopScoreDocCollector.create(1, false);
-		searcher.search(q, collector);
-		ScoreDoc[] hits = collector.topDocs().scoreDocs;
+		QueryProfile profile = ctx.getQueryProfile();
+		if (profile != null)
+			profile.start(qTree);
 
-		if (hits.length < 1) {
-			throw new Exception("External id not found.");
-		} else {
-			return hits[0].doc;
+		WandEvaluator wand = qTree.wandEvaluator(ctx);
+		TopKCollector topK = new TopKCollector(k);
+
+		wand.evaluate(topK);
+
+		QryResult result = new QryResult();
+		result.docScores = topK.toScoreList();
+		if (profile != null) {
+			profile.addDocumentsScored(wand.getDocsScored());
+			profile.end(qTree, result);
 		}
+		return result;
 	}
 
 	/**
@@ -294,15 +845,16 @@ public class QryEval {
 	 * 
 	 * @param qString
 	 *            A string containing a query.
-	 * @param qTree
-	 *            A query tree
+	 * @param model
+	 *            The retrieval model, which selects the default operator.
+	 * @return A query tree
 	 * @throws IOException
 	 */
-	static Qryop parseQuery(String qString) throws IOException {
+	static Qryop parseQuery(String qString, RetrievalModel model)
+			throws IOException {
 
 		Qryop currentOp = null;
 		Stack<Qryop> stack = new Stack<Qryop>();
-		System.out.println("good +"+qString);
 		qString = qString.trim();
 		// Add a default query operator to an unstructured query. This
 		// is a tiny bit easier if unnecessary whitespace is removed.
@@ -322,7 +874,6 @@ public class QryEval {
 		}
 		//System.out.println(qString);
 		// Tokenize the query.
-		System.out.println("machongshen+ "+qString);
 		StringTokenizer tokens = new StringTokenizer(qString, "\t\n\r ,()",
 				true);
 		String token = null;
@@ -359,6 +910,11 @@ public class QryEval {
 				int i = Integer.valueOf(p);
 				currentOp = new QryopSINear(i);
 				stack.push(currentOp);
+			} else if (token.toLowerCase().indexOf("#window/") != -1) {
+				String p = token.substring(8, token.length());
+				int i = Integer.valueOf(p);
+				currentOp = new QryopIlWindow(i);
+				stack.push(currentOp);
 			}else if (token.equalsIgnoreCase("#sum")) {
 				currentOp = new QryopBM25Sum();
 				stack.push(currentOp);
@@ -468,70 +1024,55 @@ public class QryEval {
 	 *            Original query.
 	 * @param result
 	 *            Result object generated by {@link Qryop#evaluate()}.
+	 * @param ctx
+	 *            The search context. Its retrieval model selects the output
+	 *            order.
+	 * @param k
+	 *            The number of documents to print.
 	 * @throws IOException
 	 */
 	static String printResults(String queryNum, String queryName,
-			QryResult result) throws IOException {
-
-		String s = "";
-		Map<String, Double> map = new HashMap<String, Double>();
-		// int count = 0;
-		if (result.docScores.scores.size() < 1) {
-			s = queryNum + " " + "Q0 " + "dummy" + " " + "1" + " "
-					+ "0.000000000000 " + "fubar\n";
-			return s;
-		} else {
+			QryResult result, SearchContext ctx, int k) throws IOException {
 
-		}
+		ByteArrayOutputStream s = RESULTS.get();
+		s.reset();
+		RunWriter.format("trec", queryNum, rankResults(result, ctx, k), ctx, s);
+		return s.toString("UTF-8");
+	}
 
-		for (int i = 0; i < result.docScores.scores.size(); i++) {
-			map.put(getExternalDocid(result.docScores.getDocid(i)),
-					result.docScores.getDocidScore(i));
-		}
-		// transfer the HashMap to the TreeMap
-		TreeMap<String, Double> treemap = new TreeMap<String, Double>(map);
+	/**
+	 * The k best documents of a query result, in the order in which they
+	 * are printed. Ranked retrieval models order documents by score, and
+	 * ties are broken by external document id. A bounded heap selects the
+	 * candidates first (see ScoreList.topK), so external ids are only
+	 * fetched for the documents that are printed and for documents that tie
+	 * with the last of them. Unranked results are in external id order, so
+	 * every document's external id is needed.
+	 * 
+	 * @param result
+	 *            The query result.
+	 * @param ctx
+	 *            The search context. Its retrieval model selects the order.
+	 * @param k
+	 *            The number of documents.
+	 * @return A new list of at most k documents, in rank order.
+	 * @throws IOException
+	 */
+	static ScoreList rankResults(QryResult result, SearchContext ctx, int k)
+			throws IOException {
 
+		RetrievalModel model = ctx.getModel();
 		if (model instanceof RetrievalModelRankedBoolean || model instanceof RetrievalModelBM25 || model instanceof RetrievalModelIndri ) {
-			int count = 0;
-			map = sort(treemap);
-			for (String k : map.keySet()) {
-
-				s += queryNum + " " + "Q0 " + k + " " + (count + 1) + " "
-						+ treemap.get(k) + "00000000000 " + "fubar\n";
-				if (count == 99) {
-					break;
-				}
-				count++;
-			}
-
-		} else {
-			int count = 0;
-			for (String k : treemap.keySet()) {
-
-				s += queryNum + " " + "Q0 " + k + " " + (count + 1) + " "
-						+ map.get(k) + "00000000000 " + "fubar\n";
-				if (count == 99) {
-					break;
-				}
-				count++;
-			}
+			return result.docScores.topK(k, ctx);
 		}
-		return s;
-	}
 
-	static <K, V extends Comparable<V>> Map<K, V> sort(final Map<K, V> map) {
-		Comparator<K> valueComparator = new Comparator<K>() {
-			public int compare(K k1, K k2) {
-				int compare = map.get(k2).compareTo(map.get(k1));
-				if (compare == 0)
-					return 1;
-				else
-					return compare;
-			}
-		};
-		Map<K, V> sort = new TreeMap<K, V>(valueComparator);
-		sort.putAll(map);
-		return sort;
+		ScoreList sorted = result.docScores.copy();
+		sorted.sortByExternalId(ctx);
+
+		ScoreList top = new ScoreList(Math.min(k, sorted.size()), false);
+		for (int i = 0; i < sorted.size() && i < k; i++)
+			top.add(sorted.getDocid(i), sorted.getDocidScore(i));
+		return top;
 	}
 
 	/**
@@ -566,12 +1107,12 @@ public class QryEval {
 		String s = "";
 		Map<Integer, Double> map = new HashMap<Integer, Double>();
 		// int count = 0;
-		if (result.docScores.scores.size() < 1) {
+		if (result.docScores.size() < 1) {
 			s = queryNum + " " + "Q0 " + "dummy" + " " + "1" + " "
 					+ "0.000000000000 " + "fubar\n";
 			return s;
 		}
-		for (int i = 0; i < result.docScores.scores.size(); i++) {
+		for (int i = 0; i < result.docScores.size(); i++) {
 
 			map.put(result.docScores.getDocid(i),
 					result.docScores.getDocidScore(i));
@@ -22,11 +22,11 @@ public abstract class Qryop {
     protected int nextDoc;		// The next document to examine
   };
 
-  //  Initially the query operator starts with no arguments and no
-  //  ArgPtrs.
+  //  Initially the query operator starts with no arguments.  ArgPtrs
+  //  are allocated for each evaluation and are not stored in the
+  //  operator, so evaluation does not modify shared state.
 
   protected ArrayList<Qryop> args = new ArrayList<Qryop>();
-  protected List<ArgPtr> argPtrs = new ArrayList<ArgPtr>();
   
   /**
    *  Appends an argument to the list of query operator arguments.  This
@@ -40,27 +40,122 @@ public abstract class Qryop {
   /**
    *  Use the specified retrieval model to evaluate the query arguments.
    *  Define and return ArgPtrs that the query operator can use.
-   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
    *  @return The argPtrs.  
    *  @throws IOException
    */
-  public abstract void allocArgPtrs (RetrievalModel r) throws IOException;
+  public abstract List<ArgPtr> allocArgPtrs (SearchContext ctx) throws IOException;
 
   /**
    *  Evaluates the query operator, including any child operators and
    *  returns the result.
-   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
    *  @return The result of evaluating the query.
    *  @throws IOException
    */
-  public abstract QryResult evaluate(RetrievalModel r) throws IOException;
+  public abstract QryResult evaluate(SearchContext ctx) throws IOException;
 
   /**
-   *  Free this operator's ArgPtrs.
-   *  @return void
+   *  Evaluates the query operator through the search context's query
+   *  DAG and result cache, if it has them, and records it in the
+   *  context's query profile, if it has one.  Operators evaluate their
+   *  arguments with this method, so a node that is shared in the DAG
+   *  is evaluated once, and every subtree can be answered by the
+   *  cache.
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
+   *  @return The result of evaluating the query.  It may be shared
+   *          with other operators and queries, so it must not be
+   *          modified.
+   *  @throws IOException
+   */
+  public QryResult evaluateCached(SearchContext ctx) throws IOException {
+    QueryDag dag = ctx.getQueryDag();
+    if (dag == null || !dag.isShared(this))
+      return evaluateThroughCache(ctx);
+
+    QryResult result = dag.getResult(this);
+    if (result == null) {
+      result = evaluateThroughCache(ctx);
+      dag.putResult(this, result);
+    }
+    return result;
+  }
+
+  private QryResult evaluateThroughCache(SearchContext ctx)
+    throws IOException {
+    ResultCache cache = ctx.getResultCache();
+    if (cache == null)
+      return evaluateProfiled(ctx);
+
+    String key = cacheKey(ctx);
+    QryResult result = cache.get(key);
+    if (result == null) {
+      result = evaluateProfiled(ctx);
+      if (result != null)
+        cache.put(key, result);
+    } else if (ctx.getQueryProfile() != null) {
+      ctx.getQueryProfile().cached(this, result);
+    }
+    return result;
+  }
+
+  private QryResult evaluateProfiled(SearchContext ctx) throws IOException {
+    QueryProfile profile = ctx.getQueryProfile();
+    if (profile == null)
+      return evaluate(ctx);
+
+    QryResult result = null;
+    profile.start(this);
+    try {
+      result = evaluate(ctx);
+    } finally {
+      profile.end(this, result);
+    }
+    return result;
+  }
+
+  /**
+   *  The key of the operator's result in a result cache:  its
+   *  canonical form and the retrieval model and its parameters.
+   *  @param ctx The search context.
+   *  @return The key.
+   */
+  protected String cacheKey(SearchContext ctx) {
+    return canonicalString() + "|" + ctx.getModel();
+  }
+
+  /**
+   *  A canonical string form of the query subtree.  Two subtrees that
+   *  have the same canonical form always have the same result.
+   *  Unlike toString, it names the operator class, and it includes
+   *  every parameter that affects the result.
+   *  @return The canonical form.
+   */
+  public String canonicalString() {
+    StringBuilder s = new StringBuilder(canonicalName()).append('(');
+    for (int i = 0; i < this.args.size(); i++) {
+      if (i > 0)
+        s.append(' ');
+      s.append(canonicalArg(this.args.get(i)));
+    }
+    return s.append(')').toString();
+  }
+
+  /**
+   *  The operator's name and parameters in its canonical form.
+   */
+  protected String canonicalName() {
+    return getClass().getSimpleName();
+  }
+
+  /**
+   *  The canonical form of an argument.
    */
-  public void freeArgPtrs () {
-    this.argPtrs = new ArrayList<ArgPtr>();
+  protected String canonicalArg(Qryop arg) {
+    return arg.canonicalString();
   }
 
   /**
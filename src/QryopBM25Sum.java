@@ -1,6 +1,6 @@
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 public class QryopBM25Sum extends QryopSl {
 
@@ -13,35 +13,81 @@ public class QryopBM25Sum extends QryopSl {
 		this.args.add(a);
 	}
 	@Override
-	public QryResult evaluate(RetrievalModel r) throws IOException {
+	public QryResult evaluate(SearchContext ctx) throws IOException {
 		// TODO Auto-generated method stub
 		// Initialization
-		allocArgPtrs(r);
+		List<ArgPtr> argPtrs = allocArgPtrs(ctx);
 		QryResult result = new QryResult();
-		//System.out.println(this.argPtrs.size());
-		HashMap<Integer, Double> scoremap = new LinkedHashMap<Integer, Double>();
-		// boolean flag = (this.argPtrs.size() == 1);
-		for (int j = 0; j < this.argPtrs.size(); j++) {	
-			ArgPtr ptrj = this.argPtrs.get(j);
-			
-			while (ptrj.nextDoc < ptrj.scoreList.scores.size()) {
-				if (scoremap.containsKey(ptrj.scoreList.getDocid(ptrj.nextDoc))) {
-					scoremap.put(ptrj.scoreList.getDocid(ptrj.nextDoc), scoremap.get(ptrj.scoreList.getDocid(ptrj.nextDoc))
-							+ ptrj.scoreList.getDocidScore(ptrj.nextDoc));
-				} else {
-					scoremap.put(ptrj.scoreList.getDocid(ptrj.nextDoc),
-							ptrj.scoreList.getDocidScore(ptrj.nextDoc));
+
+		// One k-way merge of the arguments' score lists. Each document's
+		// scores are added in argument order.
+
+		List<ScoreList> lists = new ArrayList<ScoreList>();
+		for (int j = 0; j < argPtrs.size(); j++)
+			lists.add(argPtrs.get(j).scoreList);
+		result.docScores = ScoreList.merge(lists, ScoreList.SUM);
+
+		return result;
+	}
+
+	/**
+	 * Compile the query operator into a score iterator for
+	 * document-at-a-time evaluation.
+	 *
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operator behaves.
+	 * @return The score iterator.
+	 * @throws IOException
+	 */
+	@Override
+	public ScoreIterator scoreIterator(SearchContext ctx) throws IOException {
+		return new SumScores(argIterators(ctx), ctx);
+	}
+
+	/**
+	 * Compile the query operator for document-at-a-time evaluation with
+	 * WAND dynamic pruning.
+	 *
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operator behaves.
+	 * @return The evaluator.
+	 * @throws IOException
+	 */
+	public WandEvaluator wandEvaluator(SearchContext ctx) throws IOException {
+		return new WandEvaluator(argIterators(ctx));
+	}
+
+	/**
+	 * SUM. The score is the sum of the matching arguments' scores, added
+	 * in argument order.
+	 */
+	private class SumScores extends ScoreIterator.Union {
+
+		private SearchContext ctx;
+
+		SumScores(ScoreIterator[] args, SearchContext ctx) {
+			super(args);
+			this.ctx = ctx;
+		}
+
+		public double score() throws IOException {
+			double docScore = 0.0;
+			boolean first = true;
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].docID() == doc) {
+					docScore = first ? args[i].score() : docScore
+							+ args[i].score();
+					first = false;
 				}
-				ptrj.nextDoc++;
 			}
-		
+			return docScore;
 		}
-		for (int i : scoremap.keySet()) {
-			//System.out.println(scoremap.get(i));
-			result.docScores.add(i, scoremap.get(i));
+
+		public double defaultScore(int docid) throws IOException {
+			return getDefaultScore(ctx, docid);
 		}
-		
-		return result;
 	}
 
 	@Override
@@ -51,7 +97,7 @@ public class QryopBM25Sum extends QryopSl {
 	}
 
 	@Override
-	public double getDefaultScore(RetrievalModel r, long docid)
+	public double getDefaultScore(SearchContext ctx, long docid)
 			throws IOException {
 		// TODO Auto-generated method stub
 		return 0;
@@ -17,20 +17,51 @@ public abstract class QryopIl extends Qryop {
   /**
    *  Use the specified retrieval model to evaluate the query arguments.
    *  Define and return ArgPtrs pointers that the query operator can use.
-   *  @param r A retrieval model that controls how the operator behaves.
-   *  @return void
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
+   *  @return The argPtrs.
    *  @throws IOException
    */
-  public void allocArgPtrs (RetrievalModel r) throws IOException {
+  public List<ArgPtr> allocArgPtrs (SearchContext ctx) throws IOException {
+    List<ArgPtr> argPtrs = new ArrayList<ArgPtr>();
 
     for (int i=0; i<this.args.size(); i++) {
       ArgPtr ptri = new ArgPtr ();
-      ptri.invList = this.args.get(i).evaluate(r).invertedList;
+      ptri.invList = this.args.get(i).evaluateCached(ctx).invertedList;
       ptri.scoreList = null;
       ptri.nextDoc = 0;
 	
-      this.argPtrs.add (ptri);
+      argPtrs.add (ptri);
     }
+
+    return argPtrs;
+  }
+
+  /**
+   *  Evaluate the query operator as a stream of postings.  Score
+   *  operators use this instead of evaluate so that operators which
+   *  can stream their postings (e.g., TERM) do not have to build an
+   *  inverted list first.  By default the operator is evaluated and
+   *  its inverted list is iterated.
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
+   *  @param needPositions True if the caller will read positions.
+   *  @return An iterator over the operator's postings.
+   *  @throws IOException
+   */
+  public PostingIterator postingIterator (SearchContext ctx,
+                                          boolean needPositions)
+    throws IOException {
+    return new PostingIterator.InvListPostings (this.evaluateCached(ctx).invertedList);
+  }
+
+  /**
+   *  Inverted lists don't depend on the retrieval model, so they are
+   *  cached by their canonical form alone, and shared by retrieval
+   *  models and parameter settings.
+   */
+  protected String cacheKey (SearchContext ctx) {
+    return canonicalString();
   }
 
 }
@@ -38,86 +38,110 @@ public class QryopIlSyn extends QryopIl {
 	 * Evaluates the query operator, including any child operators and returns
 	 * the result.
 	 * 
-	 * @param r
-	 *            A retrieval model that controls how the operator behaves.
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operator behaves.
 	 * @return The result of evaluating the query.
 	 * @throws IOException
 	 */
-	public QryResult evaluate(RetrievalModel r) throws IOException {
+	public QryResult evaluate(SearchContext ctx) throws IOException {
 
 		// Initialization
 
-		allocArgPtrs(r);
-		syntaxCheckArgResults(this.argPtrs);
+		List<ArgPtr> argPtrs = allocArgPtrs(ctx);
+		syntaxCheckArgResults(argPtrs);
 
-		QryResult result = new QryResult();
-		result.invertedList.field = new String(
-				this.argPtrs.get(0).invList.field);
-
-		// Each pass of the loop adds 1 document to result until all of
-		// the inverted lists are depleted. When a list is depleted, it
-		// is removed from argPtrs, so this loop runs until argPtrs is empty.
+		// The result is at most as large as its arguments together, so
+		// its arrays are allocated once.
 
-		// This implementation is intended to be clear. A more efficient
-		// implementation would combine loops and use merge-sort.
-		//System.out.println(this.argPtrs.size());
-		while (this.argPtrs.size() > 0) {
+		int postings = 0;
+		int locations = 0;
+		for (int i = 0; i < argPtrs.size(); i++) {
+			postings += argPtrs.get(i).invList.df;
+			locations += argPtrs.get(i).invList.ctf;
+		}
 
-			int nextDocid = getSmallestCurrentDocid();
+		QryResult result = new QryResult();
+		result.invertedList = new InvList(argPtrs.get(0).invList.field,
+				postings, locations);
+
+		// Each pass of the loop adds 1 document to result. A heap of the
+		// arguments, ordered by their current docids, finds the next
+		// document. The positions of the arguments that have it are
+		// already sorted, so they are merged into a buffer that is reused
+		// for every document.
+
+		int k = argPtrs.size();
+		CursorHeap docHeap = new CursorHeap(k);
+		CursorHeap posHeap = new CursorHeap(k);
+		int[] matched = new int[k];
+		int[] posNext = new int[k];
+		int[] posEnd = new int[k];
+		int[] positions = new int[16];
+
+		for (int i = 0; i < k; i++) {
+			InvList list = argPtrs.get(i).invList;
+			if (list.df > 0)
+				docHeap.add(i, list.getDocid(0));
+		}
 
-			// Create a new posting that is the union of the posting lists
-			// that match the nextDocid.
+		while (docHeap.size() > 0) {
 
-			List<Integer> positions = new ArrayList<Integer>();
+			int nextDocid = docHeap.topDocid();
 
-			for (int i = 0; i < this.argPtrs.size(); i++) {
-				ArgPtr ptri = this.argPtrs.get(i);
+			// Find the arguments that match nextDocid and move them to
+			// their next documents.
 
-				if (ptri.invList.getDocid(ptri.nextDoc) == nextDocid) {
-					positions
-							.addAll(ptri.invList.postings.get(ptri.nextDoc).positions);
-					ptri.nextDoc++;
-				}
-			}
+			int m = 0;
+			int tf = 0;
 
-			Collections.sort(positions);
-			result.invertedList.appendPosting(nextDocid, positions);
+			while (docHeap.size() > 0 && docHeap.topDocid() == nextDocid) {
+				int i = docHeap.topCursor();
+				ArgPtr ptri = argPtrs.get(i);
+				matched[m++] = i;
+				tf += ptri.invList.getTf(ptri.nextDoc);
 
-			// If an ArgPtr has reached the end of its list, remove it.
-			// The loop is backwards so that removing an arg does not
-			// interfere with iteration.
+				if (++ptri.nextDoc < ptri.invList.df)
+					docHeap.updateTop(ptri.invList.getDocid(ptri.nextDoc));
+				else
+					docHeap.pop();
+			}
 
-			for (int i = this.argPtrs.size() - 1; i >= 0; i--) {
-				ArgPtr ptri = this.argPtrs.get(i);
+			if (tf > positions.length)
+				positions = new int[Math.max(tf, 2 * positions.length)];
+
+			// Merge the matching arguments' positions.
+
+			if (m == 1) {
+				InvList list = argPtrs.get(matched[0]).invList;
+				int doc = argPtrs.get(matched[0]).nextDoc - 1;
+				System.arraycopy(list.getPositions(),
+						list.getPositionsStart(doc), positions, 0, tf);
+			} else {
+				posHeap.clear();
+				for (int j = 0; j < m; j++) {
+					InvList list = argPtrs.get(matched[j]).invList;
+					int doc = argPtrs.get(matched[j]).nextDoc - 1;
+					posNext[j] = list.getPositionsStart(doc);
+					posEnd[j] = posNext[j] + list.getTf(doc);
+					posHeap.add(j, list.getPositions()[posNext[j]]);
+				}
 
-				if (ptri.nextDoc >= ptri.invList.postings.size()) {
-					this.argPtrs.remove(i);
+				for (int n = 0; n < tf; n++) {
+					int j = posHeap.topCursor();
+					positions[n] = posHeap.topDocid();
+					if (++posNext[j] < posEnd[j])
+						posHeap.updateTop(argPtrs.get(matched[j]).invList
+								.getPositions()[posNext[j]]);
+					else
+						posHeap.pop();
 				}
 			}
-		}
 
-		freeArgPtrs();
-
-		return result;
-	}
-
-	/**
-	 * Return the smallest unexamined docid from the ArgPtrs.
-	 * 
-	 * @return The smallest internal document id.
-	 */
-	public int getSmallestCurrentDocid() {
-
-		int nextDocid = Integer.MAX_VALUE;
-
-		for (int i = 0; i < this.argPtrs.size(); i++) {
-			ArgPtr ptri = this.argPtrs.get(i);
-			if (nextDocid > ptri.invList.getDocid(ptri.nextDoc))
-				nextDocid = ptri.invList.getDocid(ptri.nextDoc);
-			//System.out.println(nextDocid);
+			result.invertedList.appendPosting(nextDocid, positions, 0, tf);
 		}
 
-		return (nextDocid);
+		return result;
 	}
 
 	/**
@@ -36,6 +36,20 @@ public class QryopIlTerm extends QryopIl {
     this.field = f;
   }
 
+  /**
+   *  @return The term string.
+   */
+  public String getTerm() {
+    return this.term;
+  }
+
+  /**
+   *  @return The field name.
+   */
+  public String getField() {
+    return this.field;
+  }
+
   /*
    *  Every Qryop is required to have an add method that appends
    *  query arguments, but that doesn't make sense for the Term
@@ -48,16 +62,62 @@ public class QryopIlTerm extends QryopIl {
 
   /**
    *  Evaluates the query operator and returns the result.
-   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
    *  @return The result of evaluating the query.
    *  @throws IOException
    */
-  public QryResult evaluate(RetrievalModel r) throws IOException {
+  public QryResult evaluate(SearchContext ctx) throws IOException {
     QryResult result = new QryResult();
-    result.invertedList = new InvList(this.term, this.field);
+    PostingsMemo memo = ctx.getPostingsMemo();
+    PostingsCache cache = ctx.getPostingsCache();
+
+    //  A memo reads its lists through the postings cache, if there is
+    //  one (see QryEval.evaluateQuery).
+
+    if (memo != null)
+      result.invertedList =
+        memo.getInvList(ctx.getReader(), this.term, this.field);
+    else if (cache != null)
+      result.invertedList =
+        cache.getInvList(ctx.getReader(), this.term, this.field);
+    else
+      result.invertedList = new InvList(ctx.getReader(), this.term, this.field);
+
+    if (ctx.getQueryProfile() != null)
+      ctx.getQueryProfile().addPostings(result.invertedList.df);
     return result;
   }
 
+  /**
+   *  Stream the term's inverted list from the index.  Positions are
+   *  only decoded if they are requested.
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
+   *  @param needPositions True if the caller will read positions.
+   *  @return An iterator over the term's postings.
+   *  @throws IOException
+   */
+  public PostingIterator postingIterator(SearchContext ctx,
+                                         boolean needPositions)
+    throws IOException {
+    PostingsMemo memo = ctx.getPostingsMemo();
+    if (memo != null)
+      return memo.getPostings(ctx.getReader(), this.term, this.field);
+    if (ctx.getPostingsCache() != null)
+      return ctx.getPostingsCache().getPostings(ctx.getReader(), this.term,
+                                                this.field);
+    return new PostingIterator.IndexPostings(ctx.getReader(), this.term,
+                                             this.field, needPositions);
+  }
+
+  /**
+   *  The canonical form of a term names its field.
+   */
+  public String canonicalString() {
+    return "QryopIlTerm(" + this.field + ":" + this.term + ")";
+  }
+
   /*
    *  Return a string version of this query operator.  
    *  @return The string version of this query operator.
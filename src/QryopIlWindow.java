@@ -0,0 +1,88 @@
+/**
+ * The unordered WINDOW/n operator. A document matches if it has a
+ * position of every argument, in any order, such that the largest and
+ * smallest of them are less than n apart. Each position of an argument
+ * is used by at most one match, and the match is recorded at its largest
+ * position.
+ */
+
+import java.util.Iterator;
+import java.util.List;
+
+public class QryopIlWindow extends QryopSINear {
+
+	public QryopIlWindow(int window, Qryop... q) {
+		super(window, q);
+	}
+
+	/**
+	 * Find the windows in one document. There is one cursor per argument.
+	 * If the cursors' positions fit in a window, it is a match and every
+	 * cursor moves on; otherwise the cursor on the smallest position moves
+	 * on. Each step moves at least one cursor forward, so the document is
+	 * matched in one pass over its positions.
+	 */
+	@Override
+	protected int matchPositions(List<ArgPtr> argPtrs, int[] match,
+			Positions positions) {
+
+		int k = argPtrs.size();
+		int[] cursor = positions.cursor;
+		int shortest = Integer.MAX_VALUE;
+
+		for (int i = 0; i < k; i++) {
+			InvList invi = argPtrs.get(i).invList;
+			cursor[i] = invi.getPositionsStart(match[i]);
+			shortest = Math.min(shortest, invi.getTf(match[i]));
+		}
+
+		// There can't be more windows than positions of one argument.
+
+		positions.ensureCapacity(shortest);
+		int n = 0;
+
+		while (true) {
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			int minArg = 0;
+
+			for (int i = 0; i < k; i++) {
+				int pos = argPtrs.get(i).invList.getPositions()[cursor[i]];
+				if (pos < min) {
+					min = pos;
+					minArg = i;
+				}
+				max = Math.max(max, pos);
+			}
+
+			if (max - min < dist) {
+				positions.out[n++] = max;
+				for (int i = 0; i < k; i++)
+					if (!step(argPtrs.get(i).invList, match[i], cursor, i))
+						return n;
+			} else if (!step(argPtrs.get(minArg).invList, match[minArg],
+					cursor, minArg)) {
+				return n;
+			}
+		}
+	}
+
+	/**
+	 * Move argument i's cursor to its next position.
+	 *
+	 * @return false if the argument has no more positions.
+	 */
+	private static boolean step(InvList inv, int doc, int[] cursor, int i) {
+		cursor[i]++;
+		return cursor[i] < inv.getPositionsStart(doc) + inv.getTf(doc);
+	}
+
+	@Override
+	public String toString() {
+		String result = new String();
+		for (Iterator<Qryop> i = this.args.iterator(); i.hasNext();)
+			result += (i.next().toString() + " ");
+
+		return ("#WINDOW/" + dist + "( " + result + ")");
+	}
+}
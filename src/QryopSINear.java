@@ -1,10 +1,6 @@
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 public class QryopSINear extends QryopIl {
 	int dist;
@@ -21,105 +17,148 @@ public class QryopSINear extends QryopIl {
 		this.args.add(q);
 	}
 
-	public QryResult evaluate(RetrievalModel r) throws IOException {
+	public QryResult evaluate(SearchContext ctx) throws IOException {
 		// TODO Auto-generated method stub
-		allocArgPtrs(r);
+		List<ArgPtr> argPtrs = allocArgPtrs(ctx);
 		QryResult result = new QryResult();
-		ArgPtr ptr0 = this.argPtrs.get(0);
-		EVALUATEDOCUMENTS : for (; ptr0.nextDoc < ptr0.invList.postings.size(); ptr0.nextDoc++) {
+		ArgPtr ptr0 = argPtrs.get(0);
+
+		// Buffers that are reused for every candidate document. match[j]
+		// is the index of the current document in argument j's list.
+
+		int[] match = new int[argPtrs.size()];
+		Positions positions = new Positions(argPtrs.size());
+
+		EVALUATEDOCUMENTS : while (ptr0.nextDoc < ptr0.invList.df) {
 
 			int ptr0Docid = ptr0.invList.getDocid(ptr0.nextDoc);
+			match[0] = ptr0.nextDoc;
 
-			double docScore = 1.0;
-			Map<Integer, Integer> hmap = new HashMap<Integer, Integer>();
-			// Do the other query arguments have the ptr0Docid?
+			// Do the other query arguments have the ptr0Docid? Each list
+			// gallops to it; if one skips past it, the first list gallops
+			// to that list's document.
 
-			for (int j = 1; j < this.argPtrs.size(); j++) {
+			for (int j = 1; j < argPtrs.size(); j++) {
 
-				ArgPtr ptrj = this.argPtrs.get(j);
+				ArgPtr ptrj = argPtrs.get(j);
+				ptrj.nextDoc = ptrj.invList.advance(ptrj.nextDoc, ptr0Docid);
 
-				while (true) {
+				if (ptrj.nextDoc >= ptrj.invList.df)
+					break EVALUATEDOCUMENTS; // No more docs can match
 
-					if (ptrj.nextDoc >= ptrj.invList.postings.size())
-						break EVALUATEDOCUMENTS; // No more docs can match
-					else if (ptrj.invList.getDocid(ptrj.nextDoc) > ptr0Docid)
-						continue EVALUATEDOCUMENTS; // The ptr0docid can't
-					// match.
-					else if (ptrj.invList.getDocid(ptrj.nextDoc) < ptr0Docid)
-						ptrj.nextDoc++; // Not yet at the right doc.
-					else {
-						hmap.put(j, ptrj.nextDoc);
-						break; // ptrj matches ptr0Docid
-					}
-				}
-			}
-			// The ptr0Docid matched all query arguments for postions, so save
-			// it.
-			// This is the position matching algorithm.
-			// System.out.println("doc"+this.argPtrs.get(0).invList.postings.get(3).positions);
-			// test all the position for docid.
-
-			List<Integer> list = new ArrayList<Integer>();
-			List<Integer> comlist = new ArrayList<Integer>();
-
-
-			 list = this.argPtrs.get(0).invList.postings.get(ptr0.nextDoc).positions;
-
-			 
-			// System.out.println("docid" + compare);
-			// System.out.println("apple list" + list);
-			 comlist = list;
-			//System.out.println("good" + hmap.size());
-			for (Integer p : hmap.keySet()) {
-				int i = p;
-				int compare = hmap.get(p);
-				list = new ArrayList<Integer>(comlist);
-				comlist = new ArrayList<Integer>();
-				for (int k : list) {
-					if (this.argPtrs.get(i).invList.postings.size() < compare) {
-						continue;
-					}
-					for (int j = 0; j < this.argPtrs.get(i).invList.postings
-							.get(compare).positions.size(); j++) {
-						// System.out.println("good"+this.argPtrs.get(i).invList.postings
-						// .get(compare).positions.size());
-						if (this.argPtrs.get(i).invList.postings.get(compare).positions
-								.get(j) - k > 0
-								&& this.argPtrs.get(i).invList.postings
-										.get(compare).positions.get(j) - k <= dist) {
-							if (!comlist
-									.contains(this.argPtrs.get(i).invList.postings
-											.get(compare).positions.get(j)))
-								comlist.add(this.argPtrs.get(i).invList.postings
-										.get(compare).positions.get(j));
-							break;
-
-						}
-					}
+				int ptrjDocid = ptrj.invList.getDocid(ptrj.nextDoc);
+				if (ptrjDocid > ptr0Docid) {
+					ptr0.nextDoc = ptr0.invList.advance(ptr0.nextDoc, ptrjDocid);
+					continue EVALUATEDOCUMENTS; // The ptr0docid can't match.
 				}
+				match[j] = ptrj.nextDoc;
 			}
 
-			if (comlist.size() != 0) {
+			// The ptr0Docid matched all query arguments, so match their
+			// positions.
 
-				result.invertedList.appendPosting(ptr0Docid, comlist);
-			}
+			int n = matchPositions(argPtrs, match, positions);
+			if (n != 0)
+				result.invertedList.appendPosting(ptr0Docid, positions.out, 0, n);
+
+			ptr0.nextDoc++;
 		}
 		// result.invertedList.field = new String
-		// (this.argPtrs.get(0).invList.field);
-
-		freeArgPtrs();
+		// (argPtrs.get(0).invList.field);
 		return result;
 	}
 
+	/**
+	 * Position buffers that are reused for every document.
+	 */
+	static class Positions {
+		int[] out = new int[16];
+		int[] next = new int[16];
+		int[] cursor;
+
+		Positions(int args) {
+			cursor = new int[args];
+		}
+
+		void ensureCapacity(int n) {
+			if (n > out.length) {
+				out = new int[n];
+				next = new int[n];
+			}
+		}
+	}
+
+	/**
+	 * Find the positions where the arguments match in one document. Each
+	 * argument in turn narrows the candidate positions: a position of
+	 * argument i survives if it follows a surviving position of argument
+	 * i-1 by at most dist. The candidates and each argument's positions
+	 * are ascending, so one forward-only merge per argument finds the
+	 * first position after each candidate, and only the last surviving
+	 * position needs to be checked for duplicates.
+	 * 
+	 * @param argPtrs
+	 *            The arguments.
+	 * @param match
+	 *            The index of the document in each argument's list.
+	 * @param positions
+	 *            Buffers. The matching positions are left in
+	 *            positions.out, in ascending order.
+	 * @return The number of matching positions.
+	 */
+	protected int matchPositions(List<ArgPtr> argPtrs, int[] match,
+			Positions positions) {
+
+		InvList inv0 = argPtrs.get(0).invList;
+		int n = inv0.getTf(match[0]);
+		positions.ensureCapacity(n);
+		int[] cand = positions.out;
+		int[] next = positions.next;
+		System.arraycopy(inv0.getPositions(), inv0.getPositionsStart(match[0]),
+				cand, 0, n);
+
+		for (int i = 1; i < argPtrs.size() && n > 0; i++) {
+			InvList invi = argPtrs.get(i).invList;
+			int[] pool = invi.getPositions();
+			int j = invi.getPositionsStart(match[i]);
+			int end = j + invi.getTf(match[i]);
+			int m = 0;
+			for (int c = 0; c < n; c++) {
+				int k = cand[c];
+				while (j < end && pool[j] <= k)
+					j++;
+				if (j == end)
+					break;
+				if (pool[j] - k <= dist && (m == 0 || next[m - 1] != pool[j]))
+					next[m++] = pool[j];
+			}
+			int[] tmp = cand;
+			cand = next;
+			next = tmp;
+			n = m;
+		}
+
+		positions.out = cand;
+		positions.next = next;
+		return n;
+	}
+
+	/**
+	 * The distance is part of the canonical form.
+	 */
+	@Override
+	protected String canonicalName() {
+		return getClass().getSimpleName() + "/" + dist;
+	}
+
 	@Override
 	public String toString() {
 		// TODO Auto-generated method stub
 		String result = new String();
-		int c = 0;
 		for (Iterator<Qryop> i = this.args.iterator(); i.hasNext();)
 			result += (i.next().toString() + " ");
 
-		return ("#NEAR/" + c + result + ")");
+		return ("#NEAR/" + dist + "( " + result + ")");
 	}
 
 }
\ No newline at end of file
@@ -17,36 +17,94 @@ public abstract class QryopSl extends Qryop {
   /**
    *  Use the specified retrieval model to evaluate the query arguments.
    *  Define and return ArgPtrs that the query operator can use.
-   *  @param r A retrieval model that controls how the operator behaves.
-   *  @return void
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
+   *  @return The argPtrs.
    *  @throws IOException
    */
-  public void allocArgPtrs (RetrievalModel r) throws IOException {
+  public List<ArgPtr> allocArgPtrs (SearchContext ctx) throws IOException {
+    List<ArgPtr> argPtrs = new ArrayList<ArgPtr>();
     for (int i=0; i<this.args.size(); i++) {
-
-      //  If this argument doesn't return ScoreLists, wrap it
-      //  in a #SCORE operator.
-
-      if (! QryopSl.class.isInstance (this.args.get(i)))
-	this.args.set(i, new QryopSlScore(this.args.get(i)));
-
       ArgPtr ptri = new ArgPtr ();
       ptri.invList = null;
-      ptri.scoreList = this.args.get(i).evaluate(r).docScores;
+      ptri.scoreList = scoreArg(i).evaluateCached(ctx).docScores;
       ptri.nextDoc = 0;
 	
-      this.argPtrs.add (ptri);
+      argPtrs.add (ptri);
     }
+
+    return argPtrs;
+  }
+
+  /**
+   *  Compile the query operator into a score iterator for
+   *  document-at-a-time evaluation.  Operators that do not have a
+   *  document-at-a-time implementation are evaluated as usual, and
+   *  their score list is iterated.
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
+   *  @return The score iterator.
+   *  @throws IOException
+   */
+  public ScoreIterator scoreIterator (SearchContext ctx) throws IOException {
+    return new ScoreIterator.ListScores (this.evaluateCached(ctx).docScores, this, ctx);
+  }
+
+  /**
+   *  Arguments that don't return ScoreLists are wrapped in a #SCORE
+   *  operator when they are evaluated, so the canonical form shows
+   *  them wrapped, whether or not that has happened yet.
+   */
+  protected String canonicalArg (Qryop arg) {
+    if (arg instanceof QryopSl)
+      return arg.canonicalString();
+    return "QryopSlScore(" + arg.canonicalString() + ")";
+  }
+
+  /**
+   *  Compile the query arguments into score iterators.  Like
+   *  allocArgPtrs, arguments that don't return ScoreLists are wrapped
+   *  in a #SCORE operator.
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
+   *  @return The argument iterators, in argument order.
+   *  @throws IOException
+   */
+  protected ScoreIterator[] argIterators (SearchContext ctx) throws IOException {
+    ScoreIterator[] iterators = new ScoreIterator[this.args.size()];
+
+    for (int i=0; i<this.args.size(); i++)
+      iterators[i] = scoreArg(i).scoreIterator(ctx);
+
+    return iterators;
+  }
+
+  /**
+   *  An argument as a score operator.  If it doesn't return
+   *  ScoreLists, it is wrapped in a #SCORE operator, which replaces it
+   *  in the argument list.  Evaluation wraps arguments this way, but an
+   *  operator whose result came from the result cache was not
+   *  evaluated, so anything else that needs a score operator (e.g.,
+   *  getDefaultScore) gets the argument here too.
+   *  @param i The argument's position.
+   *  @return The argument.
+   */
+  protected QryopSl scoreArg (int i) {
+    if (! QryopSl.class.isInstance (this.args.get(i)))
+      this.args.set(i, new QryopSlScore(this.args.get(i)));
+
+    return (QryopSl) this.args.get(i);
   }
 
   /*
    *  Calculate the default score for the specified document if it
    *  does not match the query operator.  This score is 0 for many
    *  retrieval models, but not all retrieval models.
-   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param ctx The search context, including the retrieval model
+   *             that controls how the operator behaves.
    *  @param docid The internal id of the document that needs a default score.
    *  @return The default score.
    */
-  public abstract double getDefaultScore (RetrievalModel r, long docid) throws IOException;
+  public abstract double getDefaultScore (SearchContext ctx, long docid) throws IOException;
 
 }
@@ -37,102 +37,91 @@ public class QryopSlAnd extends QryopSl {
 	 * Evaluates the query operator, including any child operators and returns
 	 * the result.
 	 * 
-	 * @param r
-	 *            A retrieval model that controls how the operator behaves.
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operator behaves.
 	 * @return The result of evaluating the query.
 	 * @throws IOException
 	 */
-	public QryResult evaluate(RetrievalModel r) throws IOException {
+	public QryResult evaluate(SearchContext ctx) throws IOException {
 
-		if (r instanceof RetrievalModelIndri) {
-			return (eval_Indri(r));
+		if (ctx.getModel() instanceof RetrievalModelIndri) {
+			return (eval_Indri(ctx));
 		}
-		return (evaluateBoolean(r));
+		return (evaluateBoolean(ctx));
 	}
 
 	/**
 	 * Evaluates the query operator for boolean retrieval models, including any
 	 * child operators and returns the result.
 	 * 
-	 * @param r
-	 *            A retrieval model that controls how the operator behaves.
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operator behaves.
 	 * @return The result of evaluating the query.
 	 * @throws IOException
 	 */
-	public QryResult evaluateBoolean(RetrievalModel r) throws IOException {
+	public QryResult evaluateBoolean(SearchContext ctx) throws IOException {
 
 		// Initialization
 
-		allocArgPtrs(r);
+		List<ArgPtr> argPtrs = allocArgPtrs(ctx);
 
 		QryResult result = new QryResult();
 		// Sort the arguments so that the shortest lists are first. This
 		// improves the efficiency of exact-match AND without changing
 		// the result.
 
-		for (int i = 0; i < (this.argPtrs.size() - 1); i++) {
-			for (int j = i + 1; j < this.argPtrs.size(); j++) {
-				if (this.argPtrs.get(i).scoreList.scores.size() > this.argPtrs
-						.get(j).scoreList.scores.size()) {
-					ScoreList tmpScoreList = this.argPtrs.get(i).scoreList;
-					this.argPtrs.get(i).scoreList = this.argPtrs.get(j).scoreList;
-					this.argPtrs.get(j).scoreList = tmpScoreList;
-				}
+		Collections.sort(argPtrs, new Comparator<ArgPtr>() {
+			public int compare(ArgPtr a, ArgPtr b) {
+				return a.scoreList.size() - b.scoreList.size();
 			}
-		}
+		});
 
 		// Exact-match AND requires that ALL scoreLists contain a
 		// document id. Use the first (shortest) list to control the
-		// search for matches.
+		// search for matches. The other lists skip ahead to each
+		// candidate with galloping search, and when one of them skips
+		// past it, the first list skips ahead to that list's document.
+		// The work is roughly O(shortest x log longest).
 
 		// Named loops are a little ugly. However, they make it easy
 		// to terminate an outer loop from within an inner loop.
 		// Otherwise it is necessary to use flags, which is also ugly.
 
-		ArgPtr ptr0 = this.argPtrs.get(0);
-		// result.invertedList.field = new String
-		// (this.argPtrs.get(0).invList.field);
+		ArgPtr ptr0 = argPtrs.get(0);
+		ScoreList list0 = ptr0.scoreList;
 
-		EVALUATEDOCUMENTS : for (; ptr0.nextDoc < ptr0.scoreList.scores.size(); ptr0.nextDoc++) {
+		EVALUATEDOCUMENTS : while (ptr0.nextDoc < list0.size()) {
 
-			int ptr0Docid = ptr0.scoreList.getDocid(ptr0.nextDoc);
+			int ptr0Docid = list0.getDocid(ptr0.nextDoc);
+			double docScore = list0.getDocidScore(ptr0.nextDoc);
 
-			double docScore = ptr0.scoreList.getDocidScore(ptr0.nextDoc);
-			// System.out.println(ptr0.scoreList.getDocidScore(ptr0.nextDoc));
 			// Do the other query arguments have the ptr0Docid?
 
-			boolean flag = (this.argPtrs.size() == 1);
-			for (int j = 1; j < this.argPtrs.size(); j++) {
-				ArgPtr ptrj = this.argPtrs.get(j);
-				while (ptrj.nextDoc < ptrj.scoreList.scores.size()) {
-					// System.out.println("term in other docs"+ptrj.scoreList.getDocidScore(ptrj.nextDoc));
-					if (ptrj.scoreList.getDocid(ptrj.nextDoc) > ptr0Docid)
-						continue EVALUATEDOCUMENTS; // The ptr0docid can't
-					// match.
-					else {
-						if (ptrj.scoreList.getDocid(ptrj.nextDoc) < ptr0Docid) {
-							ptrj.nextDoc++; // Not yet at the right doc.
-						} else {
-							docScore = Math.min(
-									ptrj.scoreList.getDocidScore(ptrj.nextDoc),
-									docScore);
-							flag = true;
-							break; // ptrj matches ptr0Docid
-						}
-					}
+			for (int j = 1; j < argPtrs.size(); j++) {
+				ArgPtr ptrj = argPtrs.get(j);
+				ptrj.nextDoc = ptrj.scoreList.advance(ptrj.nextDoc, ptr0Docid);
+
+				if (ptrj.nextDoc >= ptrj.scoreList.size())
+					break EVALUATEDOCUMENTS; // No more matches are possible.
+
+				int ptrjDocid = ptrj.scoreList.getDocid(ptrj.nextDoc);
+				if (ptrjDocid > ptr0Docid) {
+					ptr0.nextDoc = list0.advance(ptr0.nextDoc, ptrjDocid);
+					continue EVALUATEDOCUMENTS; // The ptr0docid can't match.
 				}
+
+				docScore = Math.min(ptrj.scoreList.getDocidScore(ptrj.nextDoc),
+						docScore);
 			}
 
 			// The ptr0Docid matched all query arguments, so save it.
-			// System.out.println("ptrdocid:"+docScore);
-			if (flag) {
 
-				result.docScores.add(ptr0Docid, docScore);
-			}
+			result.docScores.add(ptr0Docid, docScore);
+			ptr0.nextDoc++;
 		}
 
-		freeArgPtrs();
-
 		return result;
 	}
 
@@ -141,22 +130,23 @@ public class QryopSlAnd extends QryopSl {
 	 * match the query operator. This score is 0 for many retrieval models, but
 	 * not all retrieval models.
 	 * 
-	 * @param r A retrieval model that controls how the operator behaves.
+	 * @param ctx The search context, including the retrieval model
+	 *            that controls how the operator behaves.
 	 * 
 	 * @param docid The internal id of the document that needs a default score.
 	 * 
 	 * @return The default score.
 	 */
-	public double getDefaultScore(RetrievalModel r, long docid)
+	public double getDefaultScore(SearchContext ctx, long docid)
 			throws IOException {
-		if (r instanceof RetrievalModelUnrankedBoolean)
+		if (ctx.getModel() instanceof RetrievalModelUnrankedBoolean)
 			return (0.0);
-		else if (r instanceof RetrievalModelIndri) {
+		else if (ctx.getModel() instanceof RetrievalModelIndri) {
 			// Initialization
-			// allocArgPtrs(r);
+			// allocArgPtrs(ctx);
 			double result = 1.0;
 			for (int i = 0; i < args.size(); i++) {
-				result *= ((QryopSl) args.get(i)).getDefaultScore(r, docid);
+				result *= scoreArg(i).getDefaultScore(ctx, docid);
 			}
 			result = Math.pow(result, 1.0 / args.size());
 			return result;
@@ -164,57 +154,132 @@ public class QryopSlAnd extends QryopSl {
 		return 0.0;
 	}
 
-	public QryResult eval_Indri(RetrievalModel r) throws IOException {
+	/**
+	 * Evaluates the query operator for the Indri retrieval model. Every
+	 * document that matches any argument is scored; the arguments that
+	 * don't match it contribute their default scores. A heap of argument
+	 * cursors, ordered by docid, finds the next document to score.
+	 * 
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operator behaves.
+	 * @return The result of evaluating the query.
+	 * @throws IOException
+	 */
+	public QryResult eval_Indri(SearchContext ctx) throws IOException {
 
-		allocArgPtrs(r);
+		List<ArgPtr> argPtrs = allocArgPtrs(ctx);
 		QryResult result = new QryResult();
 
-		
 		double factor = 1.0 / argPtrs.size();
-		List<Integer> list= new ArrayList<Integer>();
+		CursorHeap heap = new CursorHeap(argPtrs.size());
+
 		for (int i = 0; i < argPtrs.size(); i++) {
-			list.add(0);
+			ScoreList list = argPtrs.get(i).scoreList;
+			if (list.size() > 0)
+				heap.add(i, list.getDocid(0));
 		}
-		int min = Find(list);
-		
-		while (list.get(min) < Integer.MAX_VALUE) {
+
+		while (heap.size() > 0) {
+			int id = heap.topDocid();
 			double docScore = 1.0;
-			int id = argPtrs.get(min).scoreList.getDocid(list.get(min));
+
+			// Scores are multiplied in argument order.
+
 			for (int i = 0; i < argPtrs.size(); i++) {
-				// if no such doc
-				if (list.get(i) == Integer.MAX_VALUE
-						|| argPtrs.get(i).scoreList.getDocid(list.get(i)) != id) {
-					docScore *= ((QryopSl) args.get(i)).getDefaultScore(r,
-							(long) id);
-				} else {// if have same doc
-					docScore *= argPtrs.get(i).scoreList.getDocidScore(list.get(i));
-				    	list.set(i, list.get(i)+1);
-					if (list.get(i) >= argPtrs.get(i).scoreList.scores.size())
-						list.set(i, Integer.MAX_VALUE)  ;
+				ArgPtr ptri = argPtrs.get(i);
+				if (ptri.nextDoc < ptri.scoreList.size()
+						&& ptri.scoreList.getDocid(ptri.nextDoc) == id)
+					docScore *= ptri.scoreList.getDocidScore(ptri.nextDoc);
+				else
+					docScore *= scoreArg(i).getDefaultScore(ctx, (long) id);
+			}
 
-				}
+			// Move the cursors that are on this document.
+
+			while (heap.size() > 0 && heap.topDocid() == id) {
+				ArgPtr ptri = argPtrs.get(heap.topCursor());
+				if (++ptri.nextDoc < ptri.scoreList.size())
+					heap.updateTop(ptri.scoreList.getDocid(ptri.nextDoc));
+				else
+					heap.pop();
 			}
+
 			docScore = Math.pow(docScore, factor);
 			result.docScores.add(id, docScore);
-			min = Find(list);
 		}
-		
-		freeArgPtrs();
 		return result;
 	}
-	public int Find(List<Integer> list) {
-		int min = Integer.MAX_VALUE;
-		int id = 0;
-		for (int i = 0; i < list.size(); i++) {
-			if (list.get(i) == Integer.MAX_VALUE) {
-				continue;
-			}
-			if (argPtrs.get(i).scoreList.getDocid(list.get(i)) < min) {
-				min = argPtrs.get(i).scoreList.getDocid(list.get(i));
-				id = i;
+
+	/**
+	 * Compile the query operator into a score iterator for
+	 * document-at-a-time evaluation.
+	 *
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operator behaves.
+	 * @return The score iterator.
+	 * @throws IOException
+	 */
+	public ScoreIterator scoreIterator(SearchContext ctx) throws IOException {
+
+		if (ctx.getModel() instanceof RetrievalModelIndri) {
+			return new IndriAndScores(argIterators(ctx), ctx);
+		}
+		return new BooleanAndScores(argIterators(ctx), ctx);
+	}
+
+	/**
+	 * Exact-match AND. The score is the smallest argument score.
+	 */
+	private class BooleanAndScores extends ScoreIterator.Intersection {
+
+		private SearchContext ctx;
+
+		BooleanAndScores(ScoreIterator[] args, SearchContext ctx) {
+			super(args);
+			this.ctx = ctx;
+		}
+
+		public double score() throws IOException {
+			double docScore = args[0].score();
+			for (int i = 1; i < args.length; i++)
+				docScore = Math.min(args[i].score(), docScore);
+			return docScore;
+		}
+
+		public double defaultScore(int docid) throws IOException {
+			return getDefaultScore(ctx, docid);
+		}
+	}
+
+	/**
+	 * Indri AND. Every document that matches any argument is scored; the
+	 * arguments that don't match it contribute their default scores.
+	 */
+	private class IndriAndScores extends ScoreIterator.Union {
+
+		private SearchContext ctx;
+
+		IndriAndScores(ScoreIterator[] args, SearchContext ctx) {
+			super(args);
+			this.ctx = ctx;
+		}
+
+		public double score() throws IOException {
+			double docScore = 1.0;
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].docID() == doc)
+					docScore *= args[i].score();
+				else
+					docScore *= args[i].defaultScore(doc);
 			}
+			return Math.pow(docScore, 1.0 / args.length);
+		}
+
+		public double defaultScore(int docid) throws IOException {
+			return getDefaultScore(ctx, docid);
 		}
-		return id;
 	}
 
 	public String toString() {
@@ -41,14 +41,15 @@ public class QryopSlOr extends QryopSl {
      * Evaluates the query operator, including any child operators and returns
      * the result.
      * 
-     * @param r
-     *            A retrieval model that controls how the operator behaves.
+     * @param ctx
+     *            The search context, including the retrieval model that
+     *            controls how the operator behaves.
      * @return The result of evaluating the query.
      * @throws IOException
      */
-    public QryResult evaluate(RetrievalModel r) throws IOException {
-	//if (r instanceof RetrievalModelUnrankedBoolean)
-	return (evaluateBoolean(r));
+    public QryResult evaluate(SearchContext ctx) throws IOException {
+	//if (ctx.getModel() instanceof RetrievalModelUnrankedBoolean)
+	return (evaluateBoolean(ctx));
 	//return null;
     }
 
@@ -56,23 +57,23 @@ public class QryopSlOr extends QryopSl {
      * Evaluates the query operator for boolean retrieval models, including any
      * child operators and returns the result.
      * 
-     * @param r
-     *            A retrieval model that controls how the operator behaves.
+     * @param ctx
+     *            The search context, including the retrieval model that
+     *            controls how the operator behaves.
      * @return The result of evaluating the query.
      * @throws IOException
      */
-    public QryResult evaluateBoolean(RetrievalModel r) throws IOException {
+    public QryResult evaluateBoolean(SearchContext ctx) throws IOException {
 
 		// Initialization
 		
-		allocArgPtrs(r);
+		List<ArgPtr> argPtrs = allocArgPtrs(ctx);
 		QryResult result = new QryResult();
-		long start = System.currentTimeMillis(); 
 		
 		// Sort the arguments so that the shortest lists are first. This
 		// improves the efficiency of exact-match AND without changing
 		// the result.
-		//System.out.println("size:"+this.argPtrs.get(0).scoreList.scores.size());
+		//System.out.println("size:"+argPtrs.get(0).scoreList.size());
 		//result.docScores.scores.get(index);
 
 
@@ -84,32 +85,17 @@ public class QryopSlOr extends QryopSl {
 		// to terminate an outer loop from within an inner loop.
 		// Otherwise it is necessary to use flags, which is also ugly.
 		 
-		//ArgPtr ptr0 = (this.argPtrs.get(0));
+		//ArgPtr ptr0 = (argPtrs.get(0));
 		//System.out.println(ptr0.invList.postings.size());
-		//System.out.println(ptr0.scoreList.scores.size());
-		Map<Integer, Double> orList = new HashMap<Integer, Double> ();
-		for (int i = 0 ; i < this.argPtrs.size(); i++){
-		    ArgPtr ptri = this.argPtrs.get(i);
-			for (int j = 0 ; j < ptri.scoreList.scores.size(); j++){
-			  // System.out.println("size:"+ this.argPtrs.get(0).scoreList.getDocidScore(j));
-			    int docid = ptri.scoreList.getDocid(j);
-			    double score = ptri.scoreList.getDocidScore(j);
-				if (!orList.containsKey(docid)){
-				orList.put(docid,score);
-				
-				}else if (orList.get(docid) < score){
-				    orList.put( docid,score);
-				} 
-			}
-			}
-		
-		for (int k : orList.keySet()){
-		    result.docScores.add(k, orList.get(k));	   
-		}
-		
-		freeArgPtrs();
-		long end =System.currentTimeMillis();
-		System.out.println("time for finding this query " + (double)(start+end)/1000 );
+		//System.out.println(ptr0.scoreList.size());
+		// The score lists are in docid order, so one k-way merge of the
+		// arguments gives a list that is also in docid order. A
+		// document's score is its largest score.
+
+		List<ScoreList> lists = new ArrayList<ScoreList>();
+		for (int i = 0 ; i < argPtrs.size(); i++)
+		    lists.add(argPtrs.get(i).scoreList);
+		result.docScores = ScoreList.merge(lists, ScoreList.MAX);
 		return result;
 	}
 
@@ -118,21 +104,67 @@ public class QryopSlOr extends QryopSl {
      * match the query operator. This score is 0 for many retrieval models, but
      * not all retrieval models.
      * 
-     * @param r A retrieval model that controls how the operator behaves.
+     * @param ctx The search context, including the retrieval model
+     *            that controls how the operator behaves.
      * 
      * @param docid The internal id of the document that needs a default score.
      * 
      * @return The default score.
      */
-    public double getDefaultScore(RetrievalModel r, long docid)
+    public double getDefaultScore(SearchContext ctx, long docid)
 	    throws IOException {
 
-	if (r instanceof RetrievalModelUnrankedBoolean)
+	if (ctx.getModel() instanceof RetrievalModelUnrankedBoolean)
 	    return (0.0);
 
 	return 0.0;
     }
 
+    /**
+     * Compile the query operator into a score iterator for
+     * document-at-a-time evaluation.
+     *
+     * @param ctx
+     *            The search context, including the retrieval model that
+     *            controls how the operator behaves.
+     * @return The score iterator.
+     * @throws IOException
+     */
+    public ScoreIterator scoreIterator(SearchContext ctx) throws IOException {
+	return new OrScores(argIterators(ctx), ctx);
+    }
+
+    /**
+     * OR. The score is the largest score of the matching arguments.
+     */
+    private class OrScores extends ScoreIterator.Union {
+
+	private SearchContext ctx;
+
+	OrScores(ScoreIterator[] args, SearchContext ctx) {
+	    super(args);
+	    this.ctx = ctx;
+	}
+
+	public double score() throws IOException {
+	    double docScore = 0.0;
+	    boolean first = true;
+	    for (int i = 0; i < args.length; i++) {
+		if (args[i].docID() == doc) {
+		    double score = args[i].score();
+		    if (first || docScore < score)
+			docScore = score;
+		    first = false;
+		}
+	    }
+	    return docScore;
+	}
+
+	public double defaultScore(int docid) throws IOException {
+	    return getDefaultScore(ctx, docid);
+	}
+    }
+
     /*
      * Return a string version of this query operator.
      * 
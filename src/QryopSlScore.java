@@ -12,9 +12,10 @@ import java.io.*;
 import java.util.*;
 
 public class QryopSlScore extends QryopSl {
-	private int ctf;
+	private long ctf;
 	private String field;
 	private long P;
+	private boolean statsSaved = false;
 	/**
 	 * Construct a new SCORE operator. The SCORE operator accepts just one
 	 * argument.
@@ -51,185 +52,289 @@ public class QryopSlScore extends QryopSl {
 	/**
 	 * Evaluate the query operator.
 	 * 
-	 * @param r
-	 *            A retrieval model that controls how the operator behaves.
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operator behaves.
 	 * @return The result of evaluating the query.
 	 * @throws IOException
 	 */
-	public QryResult evaluate(RetrievalModel r) throws IOException {
+	public QryResult evaluate(SearchContext ctx) throws IOException {
 
-		if (r instanceof RetrievalModelUnrankedBoolean) {
-			return (evaluateBoolean(r));
-		}
-		if (r instanceof RetrievalModelRankedBoolean) {
-			return (evaluateRankBoolean(r));
-		}
-		if (r instanceof RetrievalModelBM25) {
+		// If the argument returns a score list (which is very possible),
+		// there is nothing to score.
 
-			return (evaluateBM25(r));
-		}
-		if (r instanceof RetrievalModelIndri) {
+		if (!(args.get(0) instanceof QryopIl))
+			return args.get(0).evaluateCached(ctx);
 
-			return (evaluateIndri(r));
-		}
-		return null;
+		ScoreIterator scores = scoreIterator(ctx);
+		if (scores == null)
+			return null;
+
+		// Each pass of the loop computes a score for one document.
+
+		QryResult result = new QryResult();
+		while (scores.nextDoc() != ScoreIterator.NO_MORE_DOCS)
+			result.docScores.add(scores.docID(), scores.score());
+
+		// Every streamed posting was scored.
+
+		if (ctx.getQueryProfile() != null)
+			ctx.getQueryProfile().addPostings(result.docScores.size());
+		return result;
 	}
 
 	/**
-	 * Evaluate the query operator for boolean retrieval models.
+	 * Compile the query operator into a score iterator. The argument's
+	 * postings are streamed and scored one document at a time. Positions
+	 * are not needed for scoring, so they are never decoded.
 	 * 
-	 * @param r
-	 *            A retrieval model that controls how the operator behaves.
-	 * @return The result of evaluating the query.
+	 * @param ctx
+	 *            The search context, including the retrieval model that
+	 *            controls how the operator behaves.
+	 * @return The score iterator, or null if the retrieval model is unknown.
 	 * @throws IOException
 	 */
-	public QryResult evaluateRankBoolean(RetrievalModel r) throws IOException {
+	public ScoreIterator scoreIterator(SearchContext ctx) throws IOException {
+
+		if (!(args.get(0) instanceof QryopIl))
+			return super.scoreIterator(ctx);
 
-		// Evaluate the query argument.
+		PostingIterator postings = ((QryopIl) args.get(0)).postingIterator(ctx,
+				false);
 
-		QryResult result = args.get(0).evaluate(r);
+		// DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY.
 
-		// Each pass of the loop computes a score for one document. Note:
-		// If the evaluate operation above returned a score list (which is
-		// very possible), this loop gets skipped.
+		if (ctx.getModel() instanceof RetrievalModelUnrankedBoolean) {
+			return new UnrankedBooleanScores(postings, ctx);
+		}
+		if (ctx.getModel() instanceof RetrievalModelRankedBoolean) {
+			return new RankedBooleanScores(postings, ctx);
+		}
+		if (ctx.getModel() instanceof RetrievalModelBM25) {
+			return new BM25Scores(postings, ctx);
+		}
+		if (ctx.getModel() instanceof RetrievalModelIndri) {
+			return new IndriScores(postings, ctx);
+		}
+		return null;
+	}
 
-		for (int i = 0; i < result.invertedList.df; i++) {
+	/**
+	 * Scores the documents of a stream of postings. Subclasses implement
+	 * the score of each retrieval model.
+	 */
+	private abstract class TermScores extends ScoreIterator {
 
-			// DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY.
-			// Unranked Boolean. All matching documents get a score of 1.0.
-			// System.out.println(result.invertedList.getTf(i));
-			result.docScores.add(result.invertedList.postings.get(i).docid,
-					result.invertedList.getTf(i));
+		protected PostingIterator postings;
+		protected SearchContext ctx;
 
+		protected TermScores(PostingIterator postings, SearchContext ctx) {
+			this.postings = postings;
+			this.ctx = ctx;
 		}
 
-		// The SCORE operator should not return a populated inverted list.
-		// If there is one, replace it with an empty inverted list.
+		public int docID() {
+			return postings.docID();
+		}
 
-		if (result.invertedList.df > 0)
-			result.invertedList = new InvList();
+		public int nextDoc() throws IOException {
+			return postings.nextDoc();
+		}
 
-		return result;
+		public int advance(int target) throws IOException {
+			return postings.advance(target);
+		}
+
+		public double defaultScore(int docid) throws IOException {
+			return getDefaultScore(ctx, docid);
+		}
+
+		public long cost() {
+			return postings.df();
+		}
 	}
+
 	/**
-	 * Evaluate the query operator for boolean retrieval models.
-	 * 
-	 * @param r
-	 *            A retrieval model that controls how the operator behaves.
-	 * @return The result of evaluating the query.
-	 * @throws IOException
+	 * Unranked Boolean. All matching documents get a score of 1.0.
 	 */
-	public QryResult evaluateBM25(RetrievalModel r) throws IOException {
-		QryResult result = args.get(0).evaluate(r);
-		String field = result.invertedList.field;
-		double k3 = QryEval.k_3;
-		double k1 = QryEval.k_1;
-		int df = result.invertedList.df;
-		int qtf = 1;
-		double b = QryEval.b;
-		if (field == null)
-		{
-			field = "body";
+	private class UnrankedBooleanScores extends TermScores {
+
+		UnrankedBooleanScores(PostingIterator postings, SearchContext ctx) {
+			super(postings, ctx);
 		}
-		
-		double avgdoclength = QryEval.READER.getSumTotalTermFreq(field)
-				/ (double) QryEval.READER.getDocCount(field);
-		double idf = Math.log((QryEval.READER.getDocCount(field) - df + 0.5)
-				/ (df + 0.5));
-		double weight = (k3 + 1) * qtf / (double) (k3 + qtf);
-		double score = 0;
-		//System.out.println("bad");
-		for (int i = 0; i < df; i++) {
-			int tf = result.invertedList.postings.get(i).tf;
-
-			long doclen = 0;
-			doclen = QryEval.doclen.getDocLength(field,
-					result.invertedList.postings.get(i).docid);
-			double ftf = tf
-					/ (double) (tf + k1 * (1 - b + b * doclen / avgdoclength));
-			score = idf * ftf * weight;
-			result.docScores.add(result.invertedList.postings.get(i).docid,
-					(double) score);
 
+		public double score() {
+			return (float) 1.0;
 		}
+	}
 
-		if (result.invertedList.df > 0)
-			result.invertedList = new InvList();
-		return result;
+	/**
+	 * Ranked Boolean. The score is the term frequency.
+	 */
+	private class RankedBooleanScores extends TermScores {
 
-	}
-	public QryResult evaluateIndri(RetrievalModel r) throws IOException {
-		// System.out.println("good");
-		QryResult result = args.get(0).evaluate(r);
-		this.field = result.invertedList.field;
-		if (result.invertedList.df <= 0)
-			return result;
-		int df = result.invertedList.df;
-		double lambda = QryEval.lambda;
-		int mu = QryEval.mu;
-		this.ctf = result.invertedList.ctf;
-		if (this.field == null)
-		{
-			this.field = "body";
-		}
-		this.P = QryEval.READER.getSumTotalTermFreq(field);
-		// System.out.println("good"+QryEval.READER.getSumTotalTermFreq(field));
-		double pmle = (double) ctf / QryEval.READER.getSumTotalTermFreq(field);
-
-		double score = 0;
-		// System.out.println("good"+df);
-		for (int i = 0; i < df; i++) {
-			long doclen = QryEval.doclen.getDocLength(field,
-					result.invertedList.postings.get(i).docid);
-
-			double middle = (result.invertedList.postings.get(i).tf + (mu * pmle))
-					/ (doclen + mu);
-
-			score = ((1.0 - lambda) * middle) + (lambda * pmle);
-			// System.out.println(score);
-			result.docScores.add(result.invertedList.postings.get(i).docid,
-					(double) score);
+		RankedBooleanScores(PostingIterator postings, SearchContext ctx) {
+			super(postings, ctx);
 		}
 
-		// result.docScores. = (float) defaultScore;
-		if (result.invertedList.df > 0)
-			result.invertedList = new InvList();
-		return result;
+		public double score() throws IOException {
+			return postings.freq();
+		}
 	}
+
 	/**
-	 * Evaluate the query operator for boolean retrieval models.
-	 * 
-	 * @param r
-	 *            A retrieval model that controls how the operator behaves.
-	 * @return The result of evaluating the query.
-	 * @throws IOException
+	 * BM25. The term weights that do not depend on the document are
+	 * computed once.
 	 */
-	public QryResult evaluateBoolean(RetrievalModel r) throws IOException {
+	private class BM25Scores extends TermScores {
+
+		private String field;
+		private DocLengthStore.Lengths lengths;
+		private double k1;
+		private double b;
+		private double avgdoclength;
+		private double idf;
+		private double weight;
+
+		// Precomputed score bounds, if there are any for this term.
+
+		private BlockMaxIndex.Term bounds;
+		private int block = 0;
+
+		BM25Scores(PostingIterator postings, SearchContext ctx)
+				throws IOException {
+			super(postings, ctx);
+			String field = postings.field();
+			double k3 = ((RetrievalModelBM25) ctx.getModel()).k_3;
+			int df = postings.df();
+			int qtf = 1;
+			if (field == null) {
+				field = "body";
+			}
+			this.field = field;
+			this.lengths = ctx.getDocLengthStore().getLengths(field);
+			this.k1 = ((RetrievalModelBM25) ctx.getModel()).k_1;
+			this.b = ((RetrievalModelBM25) ctx.getModel()).b;
+			FieldStats stats = ctx.getFieldStats();
+			this.avgdoclength = stats.getAvgLength(field);
+			this.idf = Math.log((stats.getDocCount(field) - df + 0.5)
+					/ (df + 0.5));
+			this.weight = (k3 + 1) * qtf / (double) (k3 + qtf);
+
+			if (ctx.getBlockMax() != null
+					&& ctx.getBlockMax().matchesBM25(k1, b)
+					&& args.get(0) instanceof QryopIlTerm) {
+				QryopIlTerm term = (QryopIlTerm) args.get(0);
+				this.bounds = ctx.getBlockMax().find(term.getField(),
+						term.getTerm());
+
+				// Bounds from a different version of the index are useless.
+
+				if (this.bounds != null && this.bounds.getDf() != df)
+					this.bounds = null;
+			}
+		}
 
-		// Evaluate the query argument.
+		public double score() throws IOException {
+			int tf = postings.freq();
+			long doclen = lengths.get(postings.docID());
+			double ftf = tf
+					/ (double) (tf + k1 * (1 - b + b * doclen / avgdoclength));
+			return idf * ftf * weight;
+		}
 
-		QryResult result = args.get(0).evaluate(r);
+		/**
+		 * Use the precomputed bound if there is one. Otherwise, ftf is
+		 * less than 1, so idf * weight bounds the score. A term with a
+		 * negative idf never scores above 0, but its bound is clamped at
+		 * 0 either way, because pruning needs bounds that only add up.
+		 */
+		public double maxScore() {
+			if (bounds != null)
+				return Math.max(0.0, bounds.getMaxBM25() * weight);
+			return Math.max(0.0, idf * weight);
+		}
 
-		// Each pass of the loop computes a score for one document. Note:
-		// If the evaluate operation above returned a score list (which is
-		// very possible), this loop gets skipped.
+		public double blockMaxScore(int docid) {
+			if (bounds == null || (block = findBlock(docid)) == bounds
+					.getNumBlocks())
+				return maxScore();
+			return Math.max(0.0, bounds.getBlockMaxBM25(block) * weight);
+		}
 
-		for (int i = 0; i < result.invertedList.df; i++) {
+		public int blockEnd(int docid) {
+			if (bounds == null || (block = findBlock(docid)) == bounds
+					.getNumBlocks())
+				return NO_MORE_DOCS;
+			return bounds.getLastDocid(block);
+		}
 
-			// DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY.
-			// Unranked Boolean. All matching documents get a score of 1.0.
+		// Pruning asks about documents in ascending order, so the search
+		// starts at the last block found.
 
-			result.docScores.add(result.invertedList.postings.get(i).docid,
-					(float) 1.0);
+		private int findBlock(int docid) {
+			int from = (block > 0 && bounds.getLastDocid(block - 1) >= docid) ? 0
+					: block;
+			return bounds.findBlock(docid, from);
 		}
+	}
 
-		// The SCORE operator should not return a populated inverted list.
-		// If there is one, replace it with an empty inverted list.
+	/**
+	 * Indri. The collection statistics are also saved in the operator,
+	 * because getDefaultScore needs them.
+	 */
+	private class IndriScores extends TermScores {
+
+		private DocLengthStore.Lengths lengths;
+		private double lambda;
+		private int mu;
+		private double pmle;
+
+		IndriScores(PostingIterator postings, SearchContext ctx)
+				throws IOException {
+			super(postings, ctx);
+			saveDefaultScoreStats(postings, ctx);
+			if (postings.df() <= 0)
+				return;
+			this.lambda = ((RetrievalModelIndri) ctx.getModel()).lambda;
+			this.mu = ((RetrievalModelIndri) ctx.getModel()).mu;
+			this.pmle = (double) ctf / P;
+			this.lengths = ctx.getDocLengthStore().getLengths(
+					QryopSlScore.this.field);
+		}
 
-		if (result.invertedList.df > 0)
-			result.invertedList = new InvList();
+		public double score() throws IOException {
+			long doclen = lengths.get(postings.docID());
+			double middle = (postings.freq() + (mu * pmle)) / (doclen + mu);
+			return ((1.0 - lambda) * middle) + (lambda * pmle);
+		}
 
-		return result;
+		// The same as getDefaultScore, without looking up the field's
+		// lengths for every document.
+
+		public double defaultScore(int docid) throws IOException {
+			if (lengths == null)
+				return super.defaultScore(docid);
+			long doclen = lengths.get(docid);
+			double middle = ((mu * pmle)) / (doclen + mu);
+			return ((1.0 - lambda) * middle) + (lambda * pmle);
+		}
+	}
+
+	/**
+	 * Save the collection statistics that getDefaultScore needs.
+	 */
+	private void saveDefaultScoreStats(PostingIterator postings,
+			SearchContext ctx) {
+		statsSaved = true;
+		field = postings.field();
+		if (postings.df() <= 0)
+			return;
+		ctf = postings.ctf();
+		if (field == null) {
+			field = "body";
+		}
+		P = ctx.getFieldStats().getSumTotalTermFreq(field);
 	}
 
 	/*
@@ -237,23 +342,31 @@ public class QryopSlScore extends QryopSl {
 	 * argument. This score is 0 for many retrieval models, but not all
 	 * retrieval models.
 	 * 
-	 * @param r A retrieval model that controls how the operator behaves.
+	 * @param ctx The search context, including the retrieval model
+	 *            that controls how the operator behaves.
 	 * 
 	 * @param docid The internal id of the document that needs a default score.
 	 * 
 	 * @return The default score.
 	 */
-	public double getDefaultScore(RetrievalModel r, long docid)
+	public double getDefaultScore(SearchContext ctx, long docid)
 			throws IOException {
 
-		if (r instanceof RetrievalModelUnrankedBoolean)
+		if (ctx.getModel() instanceof RetrievalModelUnrankedBoolean)
 			return (0.0);
-		if (r instanceof RetrievalModelIndri) {
-			//QryResult resultdefalut = args.get(0).evaluate(r);
+		if (ctx.getModel() instanceof RetrievalModelIndri) {
+			//QryResult resultdefalut = args.get(0).evaluate(ctx);
+
+			// The statistics are saved when the operator is scored. If its
+			// score list came from a result cache, read them now.
+
+			if (!statsSaved && args.get(0) instanceof QryopIl)
+				saveDefaultScoreStats(
+						((QryopIl) args.get(0)).postingIterator(ctx, false), ctx);
 			
 			// int df = result.invertedList.df;
-			double lambda = QryEval.lambda;
-			int mu = QryEval.mu;
+			double lambda = ((RetrievalModelIndri) ctx.getModel()).lambda;
+			int mu = ((RetrievalModelIndri) ctx.getModel()).mu;
 			//int ctf = resultdefalut.invertedList.ctf;
 			//System.out.println(field);
 			if (field == null)
@@ -262,7 +375,7 @@ public class QryopSlScore extends QryopSl {
 			}
 			double pmle = (double) ctf/ P;
 			// System.out.println(pmle);
-			long doclen = QryEval.doclen.getDocLength(field, (int) docid);
+			long doclen = ctx.getDocLengthStore().getDocLength(field, (int) docid);
 			double middle = ((mu * pmle)) / (doclen + mu);
 			double score = ((1.0 - lambda) * middle) + (lambda * pmle);
 			//System.out.println(score+"score");
@@ -271,6 +384,15 @@ public class QryopSlScore extends QryopSl {
 		return 0.0;
 	}
 
+	/**
+	 * The argument is the inverted list that this operator scores, so it
+	 * isn't wrapped again. A wrapped argument and an unwrapped one then
+	 * have the same canonical form.
+	 */
+	protected String canonicalArg(Qryop arg) {
+		return arg.canonicalString();
+	}
+
 	/**
 	 * Return a string version of this query operator.
 	 * 
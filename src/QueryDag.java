@@ -0,0 +1,164 @@
+/**
+ *  A QueryDag is a compiled query tree in which identical subtrees
+ *  are replaced by one shared node, e.g., a #SYN or a term that occurs
+ *  in several places in a query.  The parsed tree is changed in place,
+ *  so it becomes a directed acyclic graph.  Two subtrees are identical
+ *  if they have the same canonical form (Qryop.canonicalString).
+ *
+ *  When a query is evaluated with a SearchContext that has its DAG,
+ *  Qryop.evaluateCached keeps the result of each shared node, so the
+ *  node is evaluated once and its result is used by all of its
+ *  parents.  Shared results must not be modified.
+ *
+ *  A DAG belongs to one evaluation of one query.  It is not
+ *  thread-safe.
+ */
+
+import java.util.*;
+
+public class QueryDag {
+
+  private final Qryop root;
+
+  //  The distinct nodes, arguments before the operators that use them.
+
+  private final List<Qryop> nodes = new ArrayList<Qryop>();
+
+  //  The number of times that each node is an argument.
+
+  private final IdentityHashMap<Qryop, Integer> parents =
+    new IdentityHashMap<Qryop, Integer>();
+  private final IdentityHashMap<Qryop, QryResult> results =
+    new IdentityHashMap<Qryop, QryResult>();
+  private int merged = 0;
+
+  private QueryDag(Qryop root) {
+    this.root = root;
+  }
+
+  /**
+   *  Compile a query tree into a DAG by merging its identical
+   *  subtrees.  The tree's argument lists are changed in place.
+   *  @param root The root of the parsed query.
+   *  @return The DAG.
+   */
+  public static QueryDag compile(Qryop root) {
+    QueryDag dag = new QueryDag(root);
+    dag.intern(root, new HashMap<String, Qryop>());
+
+    for (Qryop q : dag.nodes)
+      for (Qryop arg : q.args) {
+        Integer n = dag.parents.get(arg);
+        dag.parents.put(arg, (n == null) ? 1 : n + 1);
+      }
+
+    return dag;
+  }
+
+  //  Intern the node's arguments, then the node itself.  Returns the
+  //  node that replaces it.  Score operators wrap inverted-list
+  //  arguments in #SCORE when they are evaluated; wrapping them here
+  //  lets a repeated #SCORE be shared too.
+
+  private Qryop intern(Qryop q, Map<String, Qryop> unique) {
+    for (int i = 0; i < q.args.size(); i++) {
+      Qryop arg = q.args.get(i);
+      if (q instanceof QryopSl && !(q instanceof QryopSlScore) &&
+          !(arg instanceof QryopSl))
+        arg = new QryopSlScore(arg);
+      q.args.set(i, intern(arg, unique));
+    }
+
+    String key = q.canonicalString();
+    Qryop first = unique.get(key);
+
+    if (first == null) {
+      unique.put(key, q);
+      nodes.add(q);
+      return q;
+    }
+
+    if (first != q)
+      merged++;
+    return first;
+  }
+
+  public Qryop getRoot() {
+    return root;
+  }
+
+  /**
+   *  The number of distinct nodes in the DAG.
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   *  The number of subtrees that were replaced by a shared node.
+   */
+  public int getMerged() {
+    return merged;
+  }
+
+  /**
+   *  Whether a node is an argument of more than one operator (or more
+   *  than once of one operator), so its result should be kept.
+   *  @param q The node.
+   */
+  public boolean isShared(Qryop q) {
+    Integer n = parents.get(q);
+    return (n != null) && (n > 1);
+  }
+
+  /**
+   *  The result of a shared node, or null if it has not been
+   *  evaluated yet.
+   */
+  public QryResult getResult(Qryop q) {
+    return results.get(q);
+  }
+
+  /**
+   *  Keep the result of a shared node.
+   */
+  public void putResult(Qryop q, QryResult result) {
+    results.put(q, result);
+  }
+
+  /**
+   *  A dump of the DAG for debugging, one node per line, arguments
+   *  before the operators that use them.  Arguments are shown by node
+   *  number, and shared nodes show how many times they are used.
+   */
+  public String toString() {
+    IdentityHashMap<Qryop, Integer> ids =
+      new IdentityHashMap<Qryop, Integer>();
+    StringBuilder s = new StringBuilder();
+
+    for (Qryop q : nodes) {
+      int id = ids.size();
+      ids.put(q, id);
+      s.append("  n").append(id).append(" = ");
+
+      if (q.args.isEmpty()) {
+        s.append(q.canonicalString());
+      } else {
+        s.append(q.canonicalName()).append('(');
+        for (int i = 0; i < q.args.size(); i++) {
+          if (i > 0)
+            s.append(' ');
+          s.append('n').append(ids.get(q.args.get(i)));
+        }
+        s.append(')');
+      }
+
+      if (isShared(q))
+        s.append("  [used ").append(parents.get(q)).append(" times]");
+      s.append('\n');
+    }
+
+    return "DAG: " + nodes.size() + " nodes, " + merged +
+      " subtrees merged, root n" + ids.get(root) + "\n" + s;
+  }
+}
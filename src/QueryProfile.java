@@ -0,0 +1,248 @@
+/**
+ *  A QueryProfile records where the time of one query evaluation goes.
+ *  For each query operator node it records:
+ *
+ *  calls and cached:  The number of times the node was evaluated, and
+ *  the number of times its result came from the result cache instead.
+ *
+ *  wall time and allocated bytes:  Including and excluding the node's
+ *  arguments.  Allocation is measured with the JVM's per-thread
+ *  counter (ThreadMXBean), and is 0 if the JVM doesn't have one.
+ *
+ *  postings:  The postings the node read from the index, or from the
+ *  postings memo or cache.
+ *
+ *  documents scored:  For score operators, the documents the node
+ *  computed a score for:  its output, or every document that a
+ *  document-at-a-time evaluation visited.
+ *
+ *  output size:  The length of the node's score list or inverted list.
+ *
+ *  A query is profiled when it is evaluated with a SearchContext that
+ *  has a profile; otherwise the instrumentation costs one null check
+ *  per operator.  Operators are only timed when they are evaluated
+ *  term-at-a-time, so in document-at-a-time evaluation the root node
+ *  has the time of the whole query.  A profile belongs to one
+ *  evaluation of one query.  It is not thread-safe.
+ */
+
+import java.lang.management.*;
+import java.util.*;
+
+public class QueryProfile {
+
+  private static final ThreadMXBean THREADS =
+    ManagementFactory.getThreadMXBean();
+  private static final boolean ALLOCATION = allocationSupported();
+
+  /**
+   *  The statistics of one node.
+   */
+  public static class Stats {
+    public int calls;
+    public int cached;
+    public long nanos;
+    public long childNanos;
+    public long bytes;
+    public long childBytes;
+    public long postings;
+    public long documentsScored;
+    public long outputSize;
+  }
+
+  //  A node that is being evaluated.  Counts that are reported while
+  //  it is on top of the stack are its own.
+
+  private static class Frame {
+    Qryop op;
+    long startNanos;
+    long startBytes;
+    long postings;
+    long documentsScored = -1;
+  }
+
+  private final IdentityHashMap<Qryop, Stats> stats =
+    new IdentityHashMap<Qryop, Stats>();
+  private final ArrayList<Frame> stack = new ArrayList<Frame>();
+
+  /**
+   *  A node's evaluation starts.
+   *  @param op The node.
+   */
+  public void start(Qryop op) {
+    Frame frame = new Frame();
+    frame.op = op;
+    frame.startBytes = allocatedBytes();
+    frame.startNanos = System.nanoTime();
+    stack.add(frame);
+  }
+
+  /**
+   *  A node's evaluation ends.  Calls to start and end must nest.
+   *  @param op The node.
+   *  @param result The node's result, or null if it failed.
+   */
+  public void end(Qryop op, QryResult result) {
+    long nanos = System.nanoTime();
+    long bytes = allocatedBytes();
+    Frame frame = stack.remove(stack.size() - 1);
+    Stats s = getStats(op);
+
+    nanos -= frame.startNanos;
+    bytes -= frame.startBytes;
+    s.calls++;
+    s.nanos += nanos;
+    s.bytes += bytes;
+    s.postings += frame.postings;
+
+    long outputSize = outputSize(result);
+    s.outputSize = outputSize;
+    if (frame.documentsScored >= 0)
+      s.documentsScored += frame.documentsScored;
+    else if (op instanceof QryopSl)
+      s.documentsScored += outputSize;
+
+    if (!stack.isEmpty()) {
+      Stats parent = getStats(stack.get(stack.size() - 1).op);
+      parent.childNanos += nanos;
+      parent.childBytes += bytes;
+    }
+  }
+
+  /**
+   *  A node's result came from the result cache.
+   *  @param op The node.
+   *  @param result The cached result.
+   */
+  public void cached(Qryop op, QryResult result) {
+    Stats s = getStats(op);
+    s.cached++;
+    s.outputSize = outputSize(result);
+  }
+
+  /**
+   *  The node that is being evaluated read postings.
+   *  @param n The number of postings.
+   */
+  public void addPostings(long n) {
+    if (!stack.isEmpty())
+      stack.get(stack.size() - 1).postings += n;
+  }
+
+  /**
+   *  The node that is being evaluated scored documents.  If this is
+   *  not called, a score operator is taken to have scored its output.
+   *  @param n The number of documents.
+   */
+  public void addDocumentsScored(long n) {
+    if (!stack.isEmpty()) {
+      Frame frame = stack.get(stack.size() - 1);
+      frame.documentsScored = Math.max(frame.documentsScored, 0) + n;
+    }
+  }
+
+  /**
+   *  A node's statistics.  Nodes that were not evaluated have zeros.
+   */
+  public Stats getStats(Qryop op) {
+    Stats s = stats.get(op);
+    if (s == null) {
+      s = new Stats();
+      stats.put(op, s);
+    }
+    return s;
+  }
+
+  /**
+   *  The query tree annotated with each node's statistics, as a JSON
+   *  object.  Times are in microseconds.  A node that is shared in a
+   *  query DAG appears under each of its parents.
+   *  @param root The root of the query.
+   *  @return The JSON object.
+   */
+  public String toJson(Qryop root) {
+    StringBuilder json = new StringBuilder();
+    appendJson(json, root);
+    return json.toString();
+  }
+
+  private void appendJson(StringBuilder json, Qryop op) {
+    Stats s = getStats(op);
+
+    json.append("{\"op\":");
+    appendString(json, op.args.isEmpty() ? op.canonicalString()
+                 : op.canonicalName());
+    json.append(",\"calls\":").append(s.calls)
+      .append(",\"cached\":").append(s.cached)
+      .append(",\"wallMicros\":").append(s.nanos / 1000)
+      .append(",\"selfMicros\":").append((s.nanos - s.childNanos) / 1000)
+      .append(",\"allocatedBytes\":").append(s.bytes)
+      .append(",\"selfAllocatedBytes\":").append(s.bytes - s.childBytes)
+      .append(",\"postings\":").append(s.postings)
+      .append(",\"documentsScored\":").append(s.documentsScored)
+      .append(",\"outputSize\":").append(s.outputSize);
+
+    if (!op.args.isEmpty()) {
+      json.append(",\"args\":[");
+      for (int i = 0; i < op.args.size(); i++) {
+        if (i > 0)
+          json.append(',');
+        appendJson(json, op.args.get(i));
+      }
+      json.append(']');
+    }
+    json.append('}');
+  }
+
+  /**
+   *  Append a string as a JSON string literal.
+   *  @param json The JSON text.
+   *  @param s The string.
+   */
+  public static void appendString(StringBuilder json, String s) {
+    json.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\')
+        json.append('\\').append(c);
+      else if (c < 0x20)
+        json.append(String.format("\\u%04x", (int) c));
+      else
+        json.append(c);
+    }
+    json.append('"');
+  }
+
+  private static long outputSize(QryResult result) {
+    if (result == null)
+      return 0;
+    if (result.docScores != null && result.docScores.size() > 0)
+      return result.docScores.size();
+    if (result.invertedList != null)
+      return result.invertedList.df;
+    return 0;
+  }
+
+  private static long allocatedBytes() {
+    if (!ALLOCATION)
+      return 0;
+    return ((com.sun.management.ThreadMXBean) THREADS)
+      .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static boolean allocationSupported() {
+    try {
+      if (!(THREADS instanceof com.sun.management.ThreadMXBean))
+        return false;
+      com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) THREADS;
+      if (!threads.isThreadAllocatedMemorySupported())
+        return false;
+      if (!threads.isThreadAllocatedMemoryEnabled())
+        threads.setThreadAllocatedMemoryEnabled(true);
+      return true;
+    } catch (Throwable e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/**
+ *  A QueryServer answers queries over HTTP, so that the index is
+ *  opened, its document lengths are loaded and the JVM is warmed up
+ *  once for many queries.  It only listens on the loopback interface.
+ *  QryEval starts a server instead of evaluating a query file when the
+ *  parameter file has server:port.
+ *
+ *  Requests are GET or POST (form-encoded) /search, with the
+ *  parameters:
+ *
+ *  query:  The query text.  Required.
+ *
+ *  qid (default 1):  The query number in trec_eval output.
+ *
+ *  model (default retrievalAlgorithm):  The retrieval model.
+ *
+ *  BM25:k_1, Indri:mu, etc.:  The retrieval model's parameters.  The
+ *  defaults are the parameter file's values.
+ *
+ *  k (default 100):  The number of results, at most server:maxK.
+ *
+ *  format (default trec):  A RunWriter format (trec, tsv or binary),
+ *  or json.
+ *
+ *  evaluationMode, BM25:pruning, queryDag and the caches are set for
+ *  all requests by the parameter file, as they are for a query file.
+ *  The server parameters are:
+ *
+ *  server:port:  The port.  0 uses any free port.
+ *
+ *  server:threads (default: the number of processors):  The number of
+ *  requests that are evaluated at once.
+ *
+ *  server:maxK (default 1000):  The largest k that a request may ask
+ *  for.
+ *
+ *  Example:
+ *    curl 'http://localhost:8080/search?query=obama+family&format=json'
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.net.httpserver.*;
+
+public class QueryServer implements HttpHandler {
+
+  private static final String[] ALGORITHMS =
+    { "UnrankedBoolean", "RankedBoolean", "BM25", "Indri" };
+  private static final int MAX_K = 1000;
+
+  //  Each worker thread formats its responses in its own buffer, which
+  //  is reused for every request.
+
+  private static final ThreadLocal<ByteArrayOutputStream> RESPONSES =
+    new ThreadLocal<ByteArrayOutputStream>() {
+      protected ByteArrayOutputStream initialValue() {
+        return new ByteArrayOutputStream(RunWriter.BUFFER_SIZE);
+      }
+    };
+
+  private final SearchContext index;
+  private final Map<String, String> params;
+  private final boolean daat;
+  private final String pruning;
+  private final String dagMode;
+  private final int maxK;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   *  @param index The search context for the index, without a model.
+   *  @param params The parameter file's parameters.
+   */
+  public QueryServer(SearchContext index, Map<String, String> params) {
+    this.index = index;
+    this.params = params;
+    this.daat = "daat".equalsIgnoreCase(params.get("evaluationMode"));
+    this.pruning = get(params, "BM25:pruning", "none").toLowerCase();
+    this.dagMode = get(params, "queryDag", "none").toLowerCase();
+    this.maxK = Integer.parseInt(get(params, "server:maxK",
+                                     String.valueOf(MAX_K)));
+  }
+
+  /**
+   *  Start answering requests on worker threads.
+   *  @return The port that the server listens on.
+   *  @throws IOException
+   */
+  public int start() throws IOException {
+    int port = Integer.parseInt(get(params, "server:port", "0"));
+    int threads = Integer.parseInt(get(params, "server:threads",
+      String.valueOf(Runtime.getRuntime().availableProcessors())));
+    if (threads < 1)
+      throw new IllegalArgumentException("server:threads must be at least 1");
+
+    server = HttpServer.create(
+      new InetSocketAddress(InetAddress.getByName(null), port), 0);
+    server.createContext("/search", this);
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.start();
+    return server.getAddress().getPort();
+  }
+
+  /**
+   *  Stop answering requests.
+   */
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  public void handle(HttpExchange exchange) throws IOException {
+    int status = 200;
+    String type = "text/plain; charset=UTF-8";
+    ByteArrayOutputStream response = RESPONSES.get();
+    response.reset();
+
+    //  The exchange is closed even if evaluation fails with an Error, so
+    //  the client doesn't wait for a response that never comes.
+
+    try {
+      try {
+        Map<String, String> request = requestParameters(exchange);
+        String format = get(request, "format", "trec");
+        search(request, format, response);
+        if (format.equals("json"))
+          type = "application/json; charset=UTF-8";
+        else if (format.equals("binary"))
+          type = "application/octet-stream";
+      } catch (IllegalArgumentException e) {
+        status = 400;
+        response.reset();
+        response.write(("Error: " + e.getMessage() + "\n").getBytes("UTF-8"));
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = 500;
+        response.reset();
+        response.write(("Error: " + e + "\n").getBytes("UTF-8"));
+      }
+
+      exchange.getResponseHeaders().set("Content-Type", type);
+      exchange.sendResponseHeaders(status, response.size());
+      OutputStream out = exchange.getResponseBody();
+      response.writeTo(out);
+      out.close();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   *  Evaluate the query of one request.
+   *  @param request The request's parameters.
+   *  @param format A RunWriter format, or json.
+   *  @param response Where to write the response.
+   *  @throws IOException
+   */
+  public void search(Map<String, String> request, String format,
+                     OutputStream response) throws IOException {
+
+    if (!format.equals("json") && !RunWriter.isFormat(format))
+      throw new IllegalArgumentException("Unknown format " + format);
+
+    String query = request.get("query");
+    if (query == null || query.trim().length() == 0)
+      throw new IllegalArgumentException("query is missing");
+    String qid = get(request, "qid", "1");
+    int k = Integer.parseInt(get(request, "k",
+                                 String.valueOf(QryEval.MAX_RESULTS)));
+    if (k < 1 || k > maxK)
+      throw new IllegalArgumentException("k must be from 1 to " + maxK);
+
+    SearchContext ctx = index.withModel(model(request));
+    long start = System.nanoTime();
+    QryResult result = QryEval.runQuery(qid, query, ctx, daat, pruning,
+                                        dagMode, null, k);
+    ScoreList top = QryEval.rankResults(result, ctx, k);
+
+    if (!format.equals("json")) {
+      RunWriter.format(format, qid, top, ctx, response);
+      return;
+    }
+
+    StringBuilder s = new StringBuilder("{\"qid\":");
+    QueryProfile.appendString(s, qid);
+    s.append(",\"query\":");
+    QueryProfile.appendString(s, query);
+    s.append(",\"model\":");
+    QueryProfile.appendString(s, ctx.getModel().toString());
+    s.append(",\"results\":[");
+    for (int rank = 0; rank < top.size(); rank++) {
+      if (rank > 0)
+        s.append(',');
+      s.append("{\"rank\":").append(rank + 1).append(",\"docid\":");
+      QueryProfile.appendString(s, ctx.getExternalDocid(top.getDocid(rank)));
+      double score = top.getDocidScore(rank);
+      s.append(",\"score\":");
+      if (Double.isNaN(score) || Double.isInfinite(score))
+        s.append("null");
+      else
+        s.append(score);
+      s.append('}');
+    }
+    s.append("],\"millis\":")
+      .append((System.nanoTime() - start) / 1000 / 1000.0).append("}\n");
+    response.write(s.toString().getBytes("UTF-8"));
+  }
+
+  //  The retrieval model of a request.  Parameters that the request
+  //  doesn't have are read from the parameter file.
+
+  private RetrievalModel model(Map<String, String> request) {
+    String algorithm = get(request, "model",
+                           params.get("retrievalAlgorithm"));
+    if (algorithm == null || !Arrays.asList(ALGORITHMS).contains(algorithm))
+      throw new IllegalArgumentException("Unknown model " + algorithm);
+
+    Map<String, String> values = new LinkedHashMap<String, String>();
+    for (String name : QryEval.modelParameterNames(algorithm)) {
+      String value = get(request, algorithm + ":" + name,
+                         params.get(algorithm + ":" + name));
+      if (value == null || value.indexOf(',') >= 0)
+        throw new IllegalArgumentException("Parameter " + algorithm + ":" +
+                                           name + " needs one value");
+      values.put(name, value.trim());
+    }
+    return QryEval.createModel(algorithm, values);
+  }
+
+  //  The parameters in the request's URL and, for a POST, its body.
+
+  private static Map<String, String> requestParameters(HttpExchange exchange)
+    throws IOException {
+
+    Map<String, String> request = new HashMap<String, String>();
+    decode(exchange.getRequestURI().getRawQuery(), request);
+
+    if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+      Reader in = new InputStreamReader(exchange.getRequestBody(), "UTF-8");
+      StringBuilder body = new StringBuilder();
+      char[] buffer = new char[4096];
+      for (int n; (n = in.read(buffer)) > 0; )
+        body.append(buffer, 0, n);
+      in.close();
+      decode(body.toString(), request);
+    }
+    return request;
+  }
+
+  private static void decode(String form, Map<String, String> request)
+    throws UnsupportedEncodingException {
+    if (form == null)
+      return;
+    for (String pair : form.split("&")) {
+      if (pair.length() == 0)
+        continue;
+      int eq = pair.indexOf('=');
+      String name = (eq < 0) ? pair : pair.substring(0, eq);
+      String value = (eq < 0) ? "" : pair.substring(eq + 1);
+      request.put(URLDecoder.decode(name, "UTF-8"),
+                  URLDecoder.decode(value, "UTF-8"));
+    }
+  }
+
+  private static String get(Map<String, String> params, String name,
+                            String value) {
+    return params.containsKey(name) ? params.get(name) : value;
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ *  A ResultCache remembers the results of query operators, so that a
+ *  query subtree that is evaluated again (in a later query, or in a
+ *  later point of a parameter sweep that doesn't change it) is not
+ *  evaluated again.
+ *
+ *  Results are keyed by Qryop.cacheKey: the canonical form of the
+ *  subtree, and for score lists the retrieval model and its
+ *  parameters.  The cache holds at most maxBytes of ScoreList and
+ *  InvList data and evicts the least recently used results first.
+ *  Cached results are shared, so they must not be modified.
+ *
+ *  The cache is thread-safe.  A cache belongs to one index.
+ */
+
+import java.util.*;
+
+public class ResultCache {
+
+  //  Rough size of a map entry, its key object, and a QryResult.
+
+  private static final long ENTRY_OVERHEAD = 128;
+
+  private static class Entry {
+    QryResult result;
+    long bytes;
+  }
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, Entry> entries =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   *  @param maxBytes The largest number of bytes of cached results.
+   */
+  public ResultCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   *  Get a cached result.
+   *  @param key The operator's cache key.
+   *  @return The result, or null if it is not cached.
+   */
+  public synchronized QryResult get(String key) {
+    Entry e = entries.get(key);
+
+    if (e == null) {
+      misses++;
+      return null;
+    }
+
+    hits++;
+    return e.result;
+  }
+
+  /**
+   *  Cache a result, evicting the least recently used results if
+   *  there is not enough room.  A result that is larger than the
+   *  whole cache is not cached.
+   *  @param key The operator's cache key.
+   *  @param result The result.  It must not be modified afterwards.
+   */
+  public synchronized void put(String key, QryResult result) {
+    Entry e = new Entry();
+    e.result = result;
+    e.bytes = sizeOf(key, result);
+
+    if (e.bytes > maxBytes)
+      return;
+
+    Entry old = entries.put(key, e);
+    if (old != null)
+      bytes -= old.bytes;
+    bytes += e.bytes;
+
+    Iterator<Entry> i = entries.values().iterator();
+    while (bytes > maxBytes && i.hasNext()) {
+      Entry lru = i.next();
+      i.remove();
+      bytes -= lru.bytes;
+      evictions++;
+    }
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   *  The number of cached results.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   *  The number of bytes of cached results.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   *  A one-line summary of the counters, for logs.
+   */
+  public synchronized String toString() {
+    return "hits=" + hits + " misses=" + misses + " evictions=" +
+      evictions + " entries=" + entries.size() + " KB=" + (bytes >> 10) +
+      " maxKB=" + (maxBytes >> 10);
+  }
+
+  private static long sizeOf(String key, QryResult result) {
+    long size = ENTRY_OVERHEAD + 2L * key.length();
+    if (result.docScores != null)
+      size += result.docScores.sizeInBytes();
+    if (result.invertedList != null)
+      size += result.invertedList.sizeInBytes();
+    return size;
+  }
+}
@@ -25,4 +25,13 @@ public abstract class RetrievalModel {
    *  @return true if the parameter is set successfully, false otherwise.
    */
   public abstract boolean setParameter (String parameterName, String value);
+
+  /**
+   *  The name of the retrieval model and the values of its parameters,
+   *  e.g., for result cache keys.  Models that have parameters include
+   *  them.
+   */
+  public String toString () {
+    return getClass().getSimpleName();
+  }
 }
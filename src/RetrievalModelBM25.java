@@ -1,24 +1,54 @@
+/**
+ *  The BM25 retrieval model has three parameters: k_1, b and k_3.
+ *  Query operators read them during evaluation, so they must not be
+ *  changed while queries are being evaluated.
+ */
 
 public class RetrievalModelBM25  extends RetrievalModel{
 
+	public double k_1;
+	public double b;
+	public double k_3;
+
+	/**
+	 * Set a retrieval model parameter.
+	 * @param parameterName k_1, b or k_3.
+	 * @param value The parameter's value.
+	 * @return true if the parameter is set successfully, false otherwise.
+	 */
 	public boolean setParameter (String parameterName, double value) {
-	    System.err.println ("Error: Unknown parameter name for retrieval model " +
-				"UnrankedBoolean: " +
-				parameterName);
-	    return false;
-	  }
-
-	  /**
-	   * Set a retrieval model parameter.
-	   * @param parameterName
-	   * @param parametervalue
-	   * @return Always false because this retrieval model has no parameters.
-	   */
-	  public boolean setParameter (String parameterName, String value) {
-	    System.err.println ("Error: Unknown parameter name for retrieval model " +
-				"UnrankedBoolean: " +
-				parameterName);
-	    return false;
-	  }
+		if (parameterName.equals("k_1")) {
+			k_1 = value;
+		} else if (parameterName.equals("b")) {
+			b = value;
+		} else if (parameterName.equals("k_3")) {
+			k_3 = value;
+		} else {
+			System.err.println ("Error: Unknown parameter name for retrieval model " +
+					"BM25: " +
+					parameterName);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Set a retrieval model parameter.
+	 * @param parameterName k_1, b or k_3.
+	 * @param value The parameter's value.
+	 * @return true if the parameter is set successfully, false otherwise.
+	 */
+	public boolean setParameter (String parameterName, String value) {
+
+		// b has always been read as a float.
+
+		if (parameterName.equals("b"))
+			return setParameter (parameterName, Float.parseFloat(value));
+		return setParameter (parameterName, Double.parseDouble(value));
+	}
+
+	public String toString () {
+		return "BM25(k_1=" + k_1 + ",b=" + b + ",k_3=" + k_3 + ")";
+	}
 
 }
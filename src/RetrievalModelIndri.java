@@ -1,24 +1,49 @@
+/**
+ *  The Indri retrieval model has two parameters: mu (Dirichlet
+ *  smoothing) and lambda (Jelinek-Mercer smoothing).  Query operators
+ *  read them during evaluation, so they must not be changed while
+ *  queries are being evaluated.
+ */
 
 public class RetrievalModelIndri  extends RetrievalModel{
 
+	public int mu;
+	public double lambda;
+
+	/**
+	 * Set a retrieval model parameter.
+	 * @param parameterName mu or lambda.
+	 * @param value The parameter's value.
+	 * @return true if the parameter is set successfully, false otherwise.
+	 */
 	public boolean setParameter (String parameterName, double value) {
-	    System.err.println ("Error: Unknown parameter name for retrieval model " +
-				"UnrankedBoolean: " +
-				parameterName);
-	    return false;
-	  }
+		if (parameterName.equals("mu")) {
+			mu = (int) value;
+		} else if (parameterName.equals("lambda")) {
+			lambda = value;
+		} else {
+			System.err.println ("Error: Unknown parameter name for retrieval model " +
+					"Indri: " +
+					parameterName);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Set a retrieval model parameter.
+	 * @param parameterName mu or lambda.
+	 * @param value The parameter's value.
+	 * @return true if the parameter is set successfully, false otherwise.
+	 */
+	public boolean setParameter (String parameterName, String value) {
+		if (parameterName.equals("mu"))
+			return setParameter (parameterName, Integer.parseInt(value));
+		return setParameter (parameterName, Double.parseDouble(value));
+	}
 
-	  /**
-	   * Set a retrieval model parameter.
-	   * @param parameterName
-	   * @param parametervalue
-	   * @return Always false because this retrieval model has no parameters.
-	   */
-	  public boolean setParameter (String parameterName, String value) {
-	    System.err.println ("Error: Unknown parameter name for retrieval model " +
-				"UnrankedBoolean: " +
-				parameterName);
-	    return false;
-	  }
+	public String toString () {
+		return "Indri(mu=" + mu + ",lambda=" + lambda + ")";
+	}
 
 }
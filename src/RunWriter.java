@@ -0,0 +1,535 @@
+/**
+ *  A RunWriter writes the ranked results of queries (a run) to a
+ *  stream, in one of the formats:
+ *
+ *  trec:  trec_eval lines, "qid Q0 externalId rank score fubar".  A
+ *  query that has no results gets one "dummy" line, as trec_eval needs.
+ *
+ *  tsv:  Tab-separated "qid externalId rank score" lines.
+ *
+ *  binary:  The int magic "RUNB" and then, for each query, the qid,
+ *  the number of results and each result's external id and score.
+ *  Strings are a length and UTF-8 bytes, lengths and counts are
+ *  variable-length ints (7 bits per byte, low bits first), and scores
+ *  are big-endian doubles.  Ranks are the order of the results.  main
+ *  converts a binary run to the text formats.
+ *
+ *  Text scores are the digits of Double.toString; trec_eval scores
+ *  have "00000000000" appended, as they always have.
+ *
+ *  Results are formatted directly into a byte buffer, and external ids
+ *  are copied from the docid map if there is one, so writing a result
+ *  makes no Strings.  With asynchronous output, a full buffer is
+ *  written by a writer thread while the caller fills another one, so
+ *  I/O overlaps with the evaluation of the next queries.  A RunWriter
+ *  is not thread-safe; results must be written by one thread, in the
+ *  order in which they should appear.
+ *
+ *  format writes a single query as a run by itself, e.g., for a
+ *  response, into a buffer that the caller supplies.  Each thread has
+ *  its own writers for this, so formatting a query doesn't allocate a
+ *  writer or its buffers.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class RunWriter implements Closeable {
+
+  static final int MAGIC = 0x52554e42;		// "RUNB"
+  static final int BUFFER_SIZE = 1 << 16;
+
+  private static final byte[] Q0 = ascii(" Q0 ");
+  private static final byte[] PADDING = ascii("00000000000 fubar\n");
+  private static final byte[] DUMMY = ascii(" Q0 dummy 1 0.000000000000 fubar\n");
+
+  private static final int TREC = 0;
+  private static final int TSV = 1;
+  private static final int BINARY = 2;
+
+  private OutputStream out;
+  private final int format;
+
+  //  The buffer being filled.  With asynchronous output there are two
+  //  chunks:  one is being filled, and the other is being written or
+  //  waits in the free queue.  Full chunks go to the writer thread
+  //  through the full queue.  A chunk with no bytes stops the thread.
+
+  private static class Chunk {
+    byte[] bytes;
+    int length;
+  }
+
+  private static final Chunk STOP = new Chunk();
+
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  private int length = 0;
+  private final StringBuilder digits = new StringBuilder();
+
+  //  The writers that format uses, by format.  They have no stream of
+  //  their own; each call gives them the caller's buffer.
+
+  private static final ThreadLocal<Map<String, RunWriter>> FORMATTERS =
+    new ThreadLocal<Map<String, RunWriter>>() {
+      protected Map<String, RunWriter> initialValue() {
+        return new HashMap<String, RunWriter>();
+      }
+    };
+
+  private Chunk chunk;
+  private final BlockingQueue<Chunk> full;
+  private final BlockingQueue<Chunk> free;
+  private Thread writer;
+  private volatile IOException error;
+
+  /**
+   *  @param out The stream.  It is closed when the run is closed.
+   *  @param format trec, tsv or binary.
+   *  @param async True to write the stream on a writer thread.
+   *  @throws IOException
+   */
+  public RunWriter(OutputStream out, String format, boolean async)
+    throws IOException {
+    this.out = out;
+    if (format.equals("trec"))
+      this.format = TREC;
+    else if (format.equals("tsv"))
+      this.format = TSV;
+    else if (format.equals("binary"))
+      this.format = BINARY;
+    else
+      throw new IllegalArgumentException("Unknown run format " + format);
+
+    if (async) {
+      full = new ArrayBlockingQueue<Chunk>(2);
+      free = new ArrayBlockingQueue<Chunk>(2);
+      Chunk spare = new Chunk();
+      spare.bytes = new byte[BUFFER_SIZE];
+      free.add(spare);
+      chunk = new Chunk();
+      startWriter();
+    } else {
+      full = null;
+      free = null;
+    }
+
+    if (this.format == BINARY)
+      appendIntBytes(MAGIC);
+  }
+
+  /**
+   *  Whether a format is known.
+   */
+  public static boolean isFormat(String format) {
+    return format.equals("trec") || format.equals("tsv") ||
+      format.equals("binary");
+  }
+
+  /**
+   *  Write the results of a query.
+   *  @param queryNum The query number.
+   *  @param ranked The results, in rank order (see QryEval.rankResults).
+   *  @param ctx The search context that maps docids to external ids.
+   *  @throws IOException
+   */
+  public void write(String queryNum, ScoreList ranked, SearchContext ctx)
+    throws IOException {
+    int n = ranked.size();
+    DocidMap docids = ctx.getDocidMap();
+
+    startQuery(queryNum, n);
+    for (int rank = 0; rank < n; rank++) {
+      int docid = ranked.getDocid(rank);
+      int idStart = startResult(queryNum);
+      if (docids != null) {
+        ensureCapacity(docids.getExternalIdLength(docid));
+        length += docids.copyExternalId(docid, buffer, length);
+      } else {
+        appendUtf8(ctx.getExternalDocid(docid));
+      }
+      endResult(idStart, rank, ranked.getDocidScore(rank));
+    }
+  }
+
+  /**
+   *  Format the results of one query as a run by itself (a binary run
+   *  starts with its magic number), and write them to a buffer.
+   *  @param format trec, tsv or binary.
+   *  @param queryNum The query number.
+   *  @param ranked The results, in rank order (see QryEval.rankResults).
+   *  @param ctx The search context that maps docids to external ids.
+   *  @param dst Where to write the run.  It is not closed.
+   *  @throws IOException
+   */
+  public static void format(String format, String queryNum,
+                            ScoreList ranked, SearchContext ctx,
+                            OutputStream dst) throws IOException {
+    Map<String, RunWriter> formatters = FORMATTERS.get();
+    RunWriter run = formatters.get(format);
+    if (run == null) {
+      run = new RunWriter(null, format, false);
+      formatters.put(format, run);
+    }
+
+    run.out = dst;
+    run.length = 0;
+    try {
+      if (run.format == BINARY)
+        run.appendIntBytes(MAGIC);
+      run.write(queryNum, ranked, ctx);
+      run.flushBuffer();
+    } finally {
+      run.out = null;
+      run.length = 0;
+    }
+  }
+
+  /**
+   *  Write the results of a query whose external ids are known.
+   *  @param queryNum The query number.
+   *  @param externalIds The external ids, in rank order.
+   *  @param scores The scores.
+   *  @param n The number of results.
+   *  @throws IOException
+   */
+  public void write(String queryNum, String[] externalIds, double[] scores,
+                    int n) throws IOException {
+    startQuery(queryNum, n);
+    for (int rank = 0; rank < n; rank++) {
+      int idStart = startResult(queryNum);
+      appendUtf8(externalIds[rank]);
+      endResult(idStart, rank, scores[rank]);
+    }
+  }
+
+  //  A query's header:  nothing in the text formats, and the qid and
+  //  number of results in the binary format.
+
+  private void startQuery(String queryNum, int n) throws IOException {
+    flushIfFull();
+    if (format == BINARY) {
+      appendString(queryNum);
+      appendVInt(n);
+    } else if (format == TREC && n == 0) {
+      appendUtf8(queryNum);
+      append(DUMMY);
+    }
+  }
+
+  //  Everything before a result's external id.  Returns where the id
+  //  starts, which is where its length goes in the binary format.
+
+  private int startResult(String queryNum) throws IOException {
+    flushIfFull();
+    if (format == BINARY) {
+      ensureCapacity(5);
+      length += 5;
+      return length;
+    }
+
+    appendUtf8(queryNum);
+    if (format == TREC)
+      append(Q0);
+    else
+      appendByte('\t');
+    return length;
+  }
+
+  //  Everything after a result's external id.
+
+  private void endResult(int idStart, int rank, double score)
+    throws IOException {
+    if (format == BINARY) {
+      //  The id's length goes in the 5 bytes that were reserved for it.
+      //  A shorter variable-length int leaves a gap, so the id moves.
+
+      int idLength = length - idStart;
+      int lengthBytes = vIntLength(idLength);
+      int lengthStart = idStart - 5;
+      System.arraycopy(buffer, idStart, buffer, lengthStart + lengthBytes,
+                       idLength);
+      length = lengthStart;
+      appendVInt(idLength);
+      length += idLength;
+      appendLongBytes(Double.doubleToLongBits(score));
+      return;
+    }
+
+    char separator = (format == TREC) ? ' ' : '\t';
+    appendByte(separator);
+    appendDecimal(rank + 1, separator);
+    digits.setLength(0);
+    digits.append(score);
+    ensureCapacity(digits.length());
+    for (int i = 0; i < digits.length(); i++)
+      buffer[length++] = (byte) digits.charAt(i);
+
+    if (format == TREC)
+      append(PADDING);
+    else
+      appendByte('\n');
+  }
+
+  //  Buffers are written between results, when they are nearly full,
+  //  so that they rarely have to grow.
+
+  private void flushIfFull() throws IOException {
+    if (length > buffer.length - (buffer.length >> 3))
+      flushBuffer();
+  }
+
+  /**
+   *  Write everything, stop the writer thread and close the stream.
+   *  @throws IOException
+   */
+  public void close() throws IOException {
+    try {
+      flushBuffer();
+    } finally {
+      try {
+        if (writer != null) {
+          full.put(STOP);
+          writer.join();
+          writer = null;
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      } finally {
+        out.close();
+      }
+    }
+    checkError();
+  }
+
+  //  Give the buffer to the writer thread, or write it now.
+
+  private void flushBuffer() throws IOException {
+    checkError();
+    if (length == 0)
+      return;
+
+    if (writer == null) {
+      out.write(buffer, 0, length);
+      length = 0;
+      return;
+    }
+
+    try {
+      chunk.bytes = buffer;
+      chunk.length = length;
+      full.put(chunk);
+      chunk = free.take();
+      if (chunk.bytes.length < buffer.length)
+        chunk.bytes = new byte[buffer.length];
+      buffer = chunk.bytes;
+      length = 0;
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+  }
+
+  //  The writer thread writes full chunks in order.  After an error it
+  //  only returns them, and the error is thrown to the caller.
+
+  private void startWriter() {
+    writer = new Thread("RunWriter") {
+      public void run() {
+        try {
+          while (true) {
+            Chunk full = RunWriter.this.full.take();
+            if (full == STOP)
+              return;
+            try {
+              if (error == null)
+                out.write(full.bytes, 0, full.length);
+            } catch (IOException e) {
+              error = e;
+            }
+            free.put(full);
+          }
+        } catch (InterruptedException e) {
+        }
+      }
+    };
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private void checkError() throws IOException {
+    if (error != null)
+      throw error;
+  }
+
+  private void ensureCapacity(int n) {
+    if (length + n > buffer.length) {
+      byte[] bigger = new byte[Math.max(buffer.length * 2, length + n)];
+      System.arraycopy(buffer, 0, bigger, 0, length);
+      buffer = bigger;
+    }
+  }
+
+  private void append(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+  }
+
+  private void appendByte(char c) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) c;
+  }
+
+  //  The decimal digits of a non-negative int, then a separator.
+
+  private void appendDecimal(int n, char separator) {
+    ensureCapacity(11);
+    int end = length + 10;
+    int i = end;
+    do {
+      buffer[--i] = (byte) ('0' + n % 10);
+      n /= 10;
+    } while (n > 0);
+    int digits = end - i;
+    System.arraycopy(buffer, i, buffer, length, digits);
+    length += digits;
+    buffer[length++] = (byte) separator;
+  }
+
+  private void appendIntBytes(int n) {
+    ensureCapacity(4);
+    for (int shift = 24; shift >= 0; shift -= 8)
+      buffer[length++] = (byte) (n >>> shift);
+  }
+
+  private void appendLongBytes(long n) {
+    ensureCapacity(8);
+    for (int shift = 56; shift >= 0; shift -= 8)
+      buffer[length++] = (byte) (n >>> shift);
+  }
+
+  private void appendVInt(int n) {
+    ensureCapacity(5);
+    while ((n & ~0x7f) != 0) {
+      buffer[length++] = (byte) ((n & 0x7f) | 0x80);
+      n >>>= 7;
+    }
+    buffer[length++] = (byte) n;
+  }
+
+  private static int vIntLength(int n) {
+    int bytes = 1;
+    while ((n & ~0x7f) != 0) {
+      n >>>= 7;
+      bytes++;
+    }
+    return bytes;
+  }
+
+  private void appendString(String s) throws IOException {
+    int start = length;
+    ensureCapacity(5);
+    length += 5;
+    appendUtf8(s);
+
+    int n = length - start - 5;
+    int lengthBytes = vIntLength(n);
+    System.arraycopy(buffer, start + 5, buffer, start + lengthBytes, n);
+    length = start;
+    appendVInt(n);
+    length += n;
+  }
+
+  //  ASCII is copied as it is; anything else is encoded by the JDK.
+
+  private void appendUtf8(String s) throws IOException {
+    int n = s.length();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x80) {
+        length -= i;
+        append(s.getBytes("UTF-8"));
+        return;
+      }
+      buffer[length++] = (byte) c;
+    }
+  }
+
+  private static byte[] ascii(String s) {
+    try {
+      return s.getBytes("US-ASCII");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   *  Convert a binary run to another format.
+   *  @param in The binary run.
+   *  @param run Where to write it.
+   *  @throws IOException
+   */
+  public static void convert(InputStream in, RunWriter run)
+    throws IOException {
+    DataInputStream data =
+      new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != MAGIC)
+      throw new IOException("Not a binary run");
+
+    while (true) {
+      int first = data.read();
+      if (first < 0)
+        break;
+      String queryNum = readString(data, readVInt(data, first));
+      int n = readVInt(data, data.readUnsignedByte());
+      String[] externalIds = new String[n];
+      double[] scores = new double[n];
+      for (int i = 0; i < n; i++) {
+        externalIds[i] =
+          readString(data, readVInt(data, data.readUnsignedByte()));
+        scores[i] = data.readDouble();
+      }
+      run.write(queryNum, externalIds, scores, n);
+    }
+  }
+
+  private static int readVInt(DataInputStream data, int b)
+    throws IOException {
+    int n = b & 0x7f;
+    for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+      b = data.readUnsignedByte();
+      n |= (b & 0x7f) << shift;
+    }
+    return n;
+  }
+
+  private static String readString(DataInputStream data, int n)
+    throws IOException {
+    byte[] bytes = new byte[n];
+    data.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  /**
+   *  Convert a binary run to trec_eval or tsv format, on stdout.
+   *  Usage:  java RunWriter binaryRun [trec|tsv]
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage:  java RunWriter binaryRun [trec|tsv]");
+      System.exit(1);
+    }
+
+    RunWriter run = new RunWriter(System.out,
+                                  (args.length > 1) ? args[1] : "trec",
+                                  false);
+    InputStream in = new FileInputStream(args[0]);
+    try {
+      convert(in, run);
+    } finally {
+      in.close();
+      run.close();
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/**
+ *  A ScoreIterator produces the score list of a query operator one
+ *  document at a time, in docid order.  Iterators for a query tree
+ *  advance in docid lockstep, so a document-at-a-time evaluation can
+ *  score each document completely before moving to the next one,
+ *  without building intermediate score lists.
+ *
+ *  QryopSl.scoreIterator compiles a query operator into a
+ *  ScoreIterator.  Operators that do not have a document-at-a-time
+ *  implementation are evaluated as usual and their score list is
+ *  iterated (see ListScores).
+ */
+
+import java.io.*;
+import java.util.*;
+
+public abstract class ScoreIterator {
+
+  /**
+   *  Returned by nextDoc, advance and docID when there are no more
+   *  documents.
+   */
+  public static final int NO_MORE_DOCS = PostingIterator.NO_MORE_DOCS;
+
+  /**
+   *  The current document id.  -1 before the first call to nextDoc
+   *  or advance, NO_MORE_DOCS after the last document.
+   *  @return The internal document id.
+   */
+  public abstract int docID();
+
+  /**
+   *  Move to the next document.
+   *  @return The new document id, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public abstract int nextDoc() throws IOException;
+
+  /**
+   *  Move to the first document whose id is >= target.  The target
+   *  must be greater than the current document id.
+   *  @param target The document id to advance to.
+   *  @return The new document id, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public abstract int advance(int target) throws IOException;
+
+  /**
+   *  The score of the current document.
+   *  @return The score.
+   *  @throws IOException
+   */
+  public abstract double score() throws IOException;
+
+  /**
+   *  The score of a document that the iterator does not match.  This
+   *  is 0 for many retrieval models, but not all retrieval models.
+   *  @param docid The internal id of the document.
+   *  @return The default score.
+   *  @throws IOException
+   */
+  public abstract double defaultScore(int docid) throws IOException;
+
+  /**
+   *  An estimate of the number of documents that the iterator
+   *  matches.  Conjunctions use it to pick the most selective
+   *  argument to lead the search.
+   *  @return The estimated number of documents.
+   */
+  public abstract long cost();
+
+  /**
+   *  An upper bound on the score of any document that the iterator
+   *  matches.  Dynamic pruning uses it to skip documents that cannot
+   *  enter the top k.  Iterators that can't bound their scores return
+   *  positive infinity, which disables pruning for them.
+   *  @return The upper bound.
+   */
+  public double maxScore() {
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   *  An upper bound on the score of the documents in the block of
+   *  postings that contains the first document >= docid.  Iterators
+   *  that don't know their block bounds treat the whole list as one
+   *  block.  This doesn't move the iterator.
+   *  @param docid An internal document id.
+   *  @return The upper bound.
+   *  @throws IOException
+   */
+  public double blockMaxScore(int docid) throws IOException {
+    return maxScore();
+  }
+
+  /**
+   *  The last document id of the block of postings that contains the
+   *  first document >= docid.  See blockMaxScore.
+   *  @param docid An internal document id.
+   *  @return The last document id of the block, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public int blockEnd(int docid) throws IOException {
+    return NO_MORE_DOCS;
+  }
+
+  /**
+   *  Iterate over a score list that is already in memory.  Default
+   *  scores are provided by the operator that produced the list.
+   */
+  public static class ListScores extends ScoreIterator {
+
+    private ScoreList list;
+    private QryopSl op;
+    private SearchContext ctx;
+    private int n = -1;
+    private double maxScore = Double.NEGATIVE_INFINITY;
+
+    public ListScores(ScoreList list, QryopSl op, SearchContext ctx) {
+      this.list = list;
+      this.op = op;
+      this.ctx = ctx;
+
+      for (int i = 0; i < list.size(); i++)
+        this.maxScore = Math.max(this.maxScore, list.getDocidScore(i));
+
+      //  Score lists are normally in docid order, but be safe.
+
+      if (!list.isSortedByDocid()) {
+        this.list = list.copy();
+        this.list.sortByDocid();
+      }
+    }
+
+    public int docID() {
+      if (n < 0)
+        return -1;
+      return (n < list.size()) ? list.getDocid(n) : NO_MORE_DOCS;
+    }
+
+    public int nextDoc() {
+      n++;
+      return docID();
+    }
+
+    public int advance(int target) {
+      n = list.advance(n + 1, target);
+      return docID();
+    }
+
+    public double score() {
+      return list.getDocidScore(n);
+    }
+
+    public double defaultScore(int docid) throws IOException {
+      return op.getDefaultScore(ctx, docid);
+    }
+
+    public long cost() {
+      return list.size();
+    }
+
+    public double maxScore() {
+      return maxScore;
+    }
+  }
+
+  /**
+   *  A disjunction of score iterators.  The current document is the
+   *  smallest current document of the arguments.  Subclasses define
+   *  how the scores of the matching arguments are combined.
+   */
+  public static abstract class Union extends ScoreIterator {
+
+    protected ScoreIterator[] args;
+    protected int doc = -1;
+
+    public Union(ScoreIterator[] args) {
+      this.args = args;
+    }
+
+    public int docID() {
+      return doc;
+    }
+
+    public int nextDoc() throws IOException {
+      for (int i = 0; i < args.length; i++)
+        if (args[i].docID() == doc)
+          args[i].nextDoc();
+      return (doc = smallestDocid());
+    }
+
+    public int advance(int target) throws IOException {
+      for (int i = 0; i < args.length; i++)
+        if (args[i].docID() < target)
+          args[i].advance(target);
+      return (doc = smallestDocid());
+    }
+
+    public long cost() {
+      long cost = 0;
+      for (int i = 0; i < args.length; i++)
+        cost += args[i].cost();
+      return cost;
+    }
+
+    private int smallestDocid() {
+      int min = NO_MORE_DOCS;
+      for (int i = 0; i < args.length; i++)
+        min = Math.min(min, args[i].docID());
+      return min;
+    }
+  }
+
+  /**
+   *  A conjunction of score iterators.  Only documents that match
+   *  every argument are returned.  The arguments are sorted so that
+   *  the most selective one leads the search; subclasses that combine
+   *  scores must not depend on argument order.
+   */
+  public static abstract class Intersection extends ScoreIterator {
+
+    protected ScoreIterator[] args;
+    protected int doc = -1;
+
+    public Intersection(ScoreIterator[] args) {
+      this.args = args.clone();
+      Arrays.sort(this.args, new Comparator<ScoreIterator>() {
+        public int compare(ScoreIterator a, ScoreIterator b) {
+          return (a.cost() < b.cost()) ? -1 : ((a.cost() == b.cost()) ? 0 : 1);
+        }
+      });
+    }
+
+    public int docID() {
+      return doc;
+    }
+
+    public long cost() {
+      return args[0].cost();
+    }
+
+    public int nextDoc() throws IOException {
+      return (doc = align(args[0].nextDoc()));
+    }
+
+    public int advance(int target) throws IOException {
+      return (doc = align(args[0].advance(target)));
+    }
+
+    //  Advance the other arguments to the lead document.  If one of
+    //  them skips past it, advance the lead to that argument's
+    //  document and try again.
+
+    private int align(int d) throws IOException {
+      ALIGN: while (d != NO_MORE_DOCS) {
+        for (int i = 1; i < args.length; i++) {
+          if (args[i].docID() < d)
+            args[i].advance(d);
+          if (args[i].docID() > d) {
+            d = args[0].advance(args[i].docID());
+            continue ALIGN;
+          }
+        }
+        return d;
+      }
+      return NO_MORE_DOCS;
+    }
+  }
+}
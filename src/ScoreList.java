@@ -2,33 +2,75 @@
  *  This class implements the document score list data structure
  *  and provides methods for accessing and manipulating them.
  *
+ *  Documents and scores are kept in parallel primitive arrays that
+ *  grow as documents are added, so adding a document does not create
+ *  an object and sorting does not follow pointers.  A list can also
+ *  keep its scores as floats, which halves the size of the scores at
+ *  the cost of precision.
+ *
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
 import java.io.IOException;
 import java.util.*;
 
-import org.apache.lucene.document.Document;
-
 public class ScoreList {
 
-    // A little utilty class to create a <docid, score> object.
+    /**
+     * Combines the scores of a document that is in both lists of a merge.
+     */
+    public interface Combiner {
+	double combine(double score1, double score2);
+    }
 
-    protected class ScoreListEntry {
-	int docid;
-	double score;
+    /**
+     * The document's score is the sum of its scores.
+     */
+    public static final Combiner SUM = new Combiner() {
+	public double combine(double score1, double score2) {
+	    return score1 + score2;
+	}
+    };
 
-	private ScoreListEntry(int docid, double score) {
-	    this.docid = docid;
-	    this.score = score;
+    /**
+     * The document's score is the larger of its scores.
+     */
+    public static final Combiner MAX = new Combiner() {
+	public double combine(double score1, double score2) {
+	    return (score1 < score2) ? score2 : score1;
 	}
+    };
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] docids;
+    private double[] scores;
+    private float[] floatScores;
+    private int size = 0;
+
+    public ScoreList() {
+	this(INITIAL_CAPACITY, false);
     }
 
-    List<ScoreListEntry> scores = new ArrayList<ScoreListEntry>();
+    /**
+     * @param capacity
+     *            The number of documents that can be added before the
+     *            arrays grow.
+     * @param useFloats
+     *            Keep scores as floats instead of doubles.
+     */
+    public ScoreList(int capacity, boolean useFloats) {
+	capacity = Math.max(capacity, 1);
+	this.docids = new int[capacity];
+	if (useFloats)
+	    this.floatScores = new float[capacity];
+	else
+	    this.scores = new double[capacity];
+    }
 
     /**
      * Append a document score to a score list.
-     * 
+     *
      * @param docid
      *            An internal document id.
      * @param score
@@ -36,102 +78,506 @@ public class ScoreList {
      * @return void
      */
     public void add(int docid, double score) {
-	scores.add(new ScoreListEntry(docid, score));
+	if (size == docids.length)
+	    grow(size + 1);
+	docids[size] = docid;
+	if (scores != null)
+	    scores[size] = score;
+	else
+	    floatScores[size] = (float) score;
+	size++;
+    }
+
+    /**
+     * The number of documents in the list.
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * The number of bytes of the list's arrays, including unused
+     * capacity.
+     */
+    public long sizeInBytes() {
+	return 4L * docids.length
+		+ ((scores != null) ? 8L * scores.length : 4L * floatScores.length);
+    }
+
+    /**
+     * Returns true if scores are kept as floats.
+     */
+    public boolean usesFloats() {
+	return scores == null;
     }
 
     /**
      * Get the n'th document id.
-     * 
+     *
      * @param n
      *            The index of the requested document.
      * @return The internal document id.
      */
     public int getDocid(int n) {
-	return this.scores.get(n).docid;
+	checkIndex(n);
+	return docids[n];
     }
 
     /**
      * Get the score of the n'th document.
-     * 
+     *
      * @param n
      *            The index of the requested document score.
      * @return The document's score.
      */
     public double getDocidScore(int n) {
-	return this.scores.get(n).score;
+	checkIndex(n);
+	return (scores != null) ? scores[n] : floatScores[n];
+    }
+
+    /**
+     * Make a copy of the list.
+     */
+    public ScoreList copy() {
+	ScoreList copy = new ScoreList(size, usesFloats());
+	System.arraycopy(docids, 0, copy.docids, 0, size);
+	if (scores != null)
+	    System.arraycopy(scores, 0, copy.scores, 0, size);
+	else
+	    System.arraycopy(floatScores, 0, copy.floatScores, 0, size);
+	copy.size = size;
+	return copy;
+    }
+
+    /**
+     * Returns true if the documents are in increasing docid order.
+     */
+    public boolean isSortedByDocid() {
+	for (int i = 1; i < size; i++)
+	    if (docids[i - 1] > docids[i])
+		return false;
+	return true;
+    }
+
+    /**
+     * Sort the list in place by increasing docid.
+     */
+    public void sortByDocid() {
+	if (isSortedByDocid())
+	    return;
+
+	new Sorter() {
+	    int compare(int i, int j) {
+		return compareDocids(i, j);
+	    }
+	}.sort(0, size);
+    }
+
+    /**
+     * Sort the list in place by decreasing score. Ties are broken by
+     * increasing internal docid.
+     */
+    public void sortByScore() {
+	new Sorter() {
+	    int compare(int i, int j) {
+		int c = Double.compare(score(j), score(i));
+		return (c != 0) ? c : compareDocids(i, j);
+	    }
+	}.sort(0, size);
+    }
+
+    /**
+     * Sort the list in place by decreasing score. Ties are broken by
+     * increasing external id, which is the order of trec_eval output.
+     *
+     * @param ctx
+     *            The search context that maps docids to external ids.
+     * @throws IOException
+     */
+    public void sortByScore(SearchContext ctx) throws IOException {
+	final ExternalIds ids = new ExternalIds(ctx);
+
+	new Sorter() {
+	    int compare(int i, int j) {
+		int c = Double.compare(score(j), score(i));
+		return (c != 0) ? c : ids.compare(i, j);
+	    }
+	}.sort(0, size);
+
+	ids.rethrow();
+    }
+
+    /**
+     * Sort the list in place by increasing external id.
+     *
+     * @param ctx
+     *            The search context that maps docids to external ids.
+     * @throws IOException
+     */
+    public void sortByExternalId(SearchContext ctx) throws IOException {
+	final ExternalIds ids = new ExternalIds(ctx);
+
+	new Sorter() {
+	    int compare(int i, int j) {
+		return ids.compare(i, j);
+	    }
+	}.sort(0, size);
+
+	ids.rethrow();
+    }
+
+    /**
+     * Get the k best documents, in score order. Ties are broken by
+     * external id, so the result is the first k documents of the list
+     * after sortByScore(ctx). This list is not changed, and external ids
+     * are only compared for documents that can be in the result.
+     *
+     * @param k
+     *            The number of documents.
+     * @param ctx
+     *            The search context that maps docids to external ids.
+     * @return A new list of at most k documents.
+     * @throws IOException
+     */
+    public ScoreList topK(int k, SearchContext ctx) throws IOException {
+	TopKCollector collector = new TopKCollector(k);
+	for (int i = 0; i < size; i++)
+	    collector.collect(docids[i], score(i));
+
+	ScoreList top = collector.toScoreList();
+	top.sortByScore(ctx);
+	top.size = Math.min(top.size, k);
+	return top;
+    }
+
+    /**
+     * Merge two lists that are in docid order. The result has every
+     * document that is in either list, in docid order. A document that is
+     * in one list keeps its score; the scores of a document that is in
+     * both lists are combined.
+     *
+     * @param list1
+     *            A list in docid order.
+     * @param list2
+     *            A list in docid order.
+     * @param combiner
+     *            Combines the scores of documents that are in both lists.
+     *            Its first argument is the score from list1.
+     * @return The merged list.
+     */
+    public static ScoreList merge(ScoreList list1, ScoreList list2,
+	    Combiner combiner) {
+	if (!list1.isSortedByDocid() || !list2.isSortedByDocid())
+	    throw new IllegalArgumentException(
+		    "Merged score lists must be in docid order");
+
+	ScoreList merged = new ScoreList(list1.size + list2.size,
+		list1.usesFloats());
+	int i = 0;
+	int j = 0;
+
+	while (i < list1.size && j < list2.size) {
+	    int doc1 = list1.docids[i];
+	    int doc2 = list2.docids[j];
+
+	    if (doc1 < doc2) {
+		merged.add(doc1, list1.score(i++));
+	    } else if (doc1 > doc2) {
+		merged.add(doc2, list2.score(j++));
+	    } else {
+		merged.add(doc1,
+			combiner.combine(list1.score(i++), list2.score(j++)));
+	    }
+	}
+
+	for (; i < list1.size; i++)
+	    merged.add(list1.docids[i], list1.score(i));
+
+	for (; j < list2.size; j++)
+	    merged.add(list2.docids[j], list2.score(j));
+
+	return merged;
+    }
+
+    /**
+     * Merge any number of lists that are in docid order, with a heap of
+     * list cursors ordered by docid and then by list. The result has
+     * every document that is in any list, in docid order. The scores of a
+     * document that is in several lists are combined in list order, as if
+     * the lists had been merged one at a time with merge(list1, list2,
+     * combiner).
+     *
+     * @param lists
+     *            The lists, each in docid order.
+     * @param combiner
+     *            Combines the scores of documents that are in several
+     *            lists.
+     * @return The merged list.
+     */
+    public static ScoreList merge(List<ScoreList> lists, Combiner combiner) {
+	int k = lists.size();
+	int capacity = 0;
+
+	for (ScoreList list : lists) {
+	    if (!list.isSortedByDocid())
+		throw new IllegalArgumentException(
+			"Merged score lists must be in docid order");
+	    capacity = Math.max(capacity, list.size);
+	}
+
+	if (k == 2)
+	    return merge(lists.get(0), lists.get(1), combiner);
+
+	ScoreList merged = new ScoreList(capacity, k > 0
+		&& lists.get(0).usesFloats());
+	CursorHeap heap = new CursorHeap(k);
+	int[] pos = new int[k];
+
+	for (int i = 0; i < k; i++)
+	    if (lists.get(i).size > 0)
+		heap.add(i, lists.get(i).docids[0]);
+
+	while (heap.size() > 0) {
+
+	    // The top of the heap is the smallest docid, in the first list
+	    // that has it. Combine its score with the later lists' scores.
+
+	    int docid = heap.topDocid();
+	    double score = 0.0;
+	    boolean first = true;
+
+	    while (heap.size() > 0 && heap.topDocid() == docid) {
+		int i = heap.topCursor();
+		ScoreList list = lists.get(i);
+		score = first ? list.score(pos[i]) : combiner.combine(score,
+			list.score(pos[i]));
+		first = false;
+
+		if (++pos[i] < list.size)
+		    heap.updateTop(list.docids[pos[i]]);
+		else
+		    heap.pop();
+	    }
+
+	    merged.add(docid, score);
+	}
+
+	return merged;
+    }
+
+    /**
+     * Find the first document at or after position from whose docid is at
+     * least target. The list must be in docid order. Galloping search
+     * makes skipping far ahead cost O(log distance).
+     *
+     * @param from
+     *            The position to start from.
+     * @param target
+     *            The docid to look for.
+     * @return The position, or size() if there is no such document.
+     */
+    public int advance(int from, int target) {
+	if (from >= size || docids[from] >= target)
+	    return from;
+
+	// docids[lo] < target. Double the step until docids[hi] >= target.
+
+	int lo = from;
+	int step = 1;
+	int hi = from + 1;
+	while (hi < size && docids[hi] < target) {
+	    lo = hi;
+	    step <<= 1;
+	    hi = from + step;
+	}
+	hi = Math.min(hi, size);
+
+	// Binary search for the first docid >= target in (lo, hi].
+
+	while (lo + 1 < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (docids[mid] < target)
+		lo = mid;
+	    else
+		hi = mid;
+	}
+	return hi;
+    }
+
+    private double score(int n) {
+	return (scores != null) ? scores[n] : floatScores[n];
     }
 
-    static String getExternalDocid(int iid) throws IOException {
-	System.out.println("good");
-	Document d = QryEval.READER.document(iid);
-	String eid = d.get("externalId");
-	return eid;
+    private int compareDocids(int i, int j) {
+	return (docids[i] < docids[j]) ? -1 : ((docids[i] == docids[j]) ? 0
+		: 1);
     }
 
-    // Sort Algorithm
-    public void nameSort(List<ScoreListEntry> list) {
-	Comparator<ScoreList.ScoreListEntry> comparator = new Comparator<ScoreList.ScoreListEntry>() {
+    private void checkIndex(int n) {
+	if (n < 0 || n >= size)
+	    throw new IndexOutOfBoundsException("Index: " + n + ", Size: "
+		    + size);
+    }
+
+    private void grow(int minCapacity) {
+	int capacity = Math.max(minCapacity, 2 * docids.length);
+	docids = Arrays.copyOf(docids, capacity);
+	if (scores != null)
+	    scores = Arrays.copyOf(scores, capacity);
+	else
+	    floatScores = Arrays.copyOf(floatScores, capacity);
+    }
+
+    private void swap(int i, int j) {
+	int doc = docids[i];
+	docids[i] = docids[j];
+	docids[j] = doc;
+
+	if (scores != null) {
+	    double score = scores[i];
+	    scores[i] = scores[j];
+	    scores[j] = score;
+	} else {
+	    float score = floatScores[i];
+	    floatScores[i] = floatScores[j];
+	    floatScores[j] = score;
+	}
+    }
+
+    /**
+     * Compares the external ids of the documents at two positions of the
+     * list. With a docid map the ids are compared in the map. Otherwise
+     * each document's id is read once, when it is first compared, and
+     * remembered by docid, so it stays valid while the list is sorted.
+     * Comparators can't throw IOException, so a read error is kept and
+     * thrown by rethrow after the sort.
+     */
+    private class ExternalIds {
+
+	private SearchContext ctx;
+	private DocidMap map;
+	private Map<Integer, String> ids = new HashMap<Integer, String>();
+	private IOException error;
 
-	    @Override
-	    public int compare(ScoreList.ScoreListEntry o1,
-		    ScoreList.ScoreListEntry o2) {
-		String s1, s2;
+	ExternalIds(SearchContext ctx) {
+	    this.ctx = ctx;
+	    this.map = ctx.getDocidMap();
+	}
 
+	int compare(int i, int j) {
+	    if (map != null)
+		return map.compare(docids[i], docids[j]);
+
+	    String id1 = get(docids[i]);
+	    String id2 = get(docids[j]);
+	    if (id1 == null || id2 == null)
+		return 0;
+	    return id1.compareTo(id2);
+	}
+
+	private String get(int docid) {
+	    String id = ids.get(docid);
+	    if (id == null && error == null) {
 		try {
-		    s1 = getExternalDocid(o1.docid);
-		    s2 = getExternalDocid(o2.docid);
-		    if (s1.compareTo(s2) > 0) {
-			// System.out.println(o1.docid);
-			return 1;
-		    } else
-			return -1;
+		    id = ctx.getExternalDocid(docid);
+		    ids.put(docid, id);
 		} catch (IOException e) {
-		    // TODO Auto-generated catch block
-		    e.printStackTrace();
+		    error = e;
 		}
-
-		// TODO Auto-generated method stub
-		return -1;
 	    }
+	    return id;
+	}
 
-	};
-	Collections.sort(list, comparator);
+	void rethrow() throws IOException {
+	    if (error != null)
+		throw error;
+	}
     }
 
-    public void scoreSort(List<ScoreListEntry> list) {
+    /**
+     * An in-place introsort of list positions: quicksort, with insertion
+     * sort for short ranges, and heapsort if quicksort goes too deep.
+     */
+    private abstract class Sorter {
+
+	abstract int compare(int i, int j);
+
+	void sort(int from, int to) {
+	    int depth = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+	    quicksort(from, to, depth);
+	}
+
+	private void quicksort(int from, int to, int depth) {
+	    while (to - from > 16) {
+		if (depth-- == 0) {
+		    heapsort(from, to);
+		    return;
+		}
+
+		// The median of three is the pivot. It is moved to from.
+
+		int mid = (from + to) >>> 1;
+		if (compare(mid, from) < 0)
+		    swap(mid, from);
+		if (compare(to - 1, mid) < 0) {
+		    swap(to - 1, mid);
+		    if (compare(mid, from) < 0)
+			swap(mid, from);
+		}
+		swap(from, mid);
 
-	Comparator<ScoreList.ScoreListEntry> comparator = new Comparator<ScoreList.ScoreListEntry>() {
-	    @Override
-	    public int compare(ScoreList.ScoreListEntry o1,
-		    ScoreList.ScoreListEntry o2) {
-		double s1, s2;
-		String p1, p2;
-		s1 = o1.score;
-		s2 = o2.score;
-		if (s1 < s2) {
-		    // System.out.println(o1.docid);
-		    return 1;
+		int i = from + 1;
+		int j = to - 1;
+		while (true) {
+		    while (i <= j && compare(i, from) < 0)
+			i++;
+		    while (i <= j && compare(from, j) < 0)
+			j--;
+		    if (i >= j)
+			break;
+		    swap(i++, j--);
 		}
-		if (s1 == s2) {
-		    try {
-			p1 = getExternalDocid(o1.docid);
-			p2 = getExternalDocid(o2.docid);
-			if (p1.compareTo(p2) > 0) {
-			    // System.out.println(o1.docid);
-			    return 1;
-			} else
-			    return -1;
-		    } catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		    }
+		swap(from, j);
+
+		// Recurse into the smaller side and loop on the larger.
+
+		if (j - from < to - j - 1) {
+		    quicksort(from, j, depth);
+		    from = j + 1;
+		} else {
+		    quicksort(j + 1, to, depth);
+		    to = j;
 		}
-		// TODO Auto-generated method stub
-		return -1;
 	    }
 
-	};
-	Collections.sort(list, comparator);
+	    for (int i = from + 1; i < to; i++)
+		for (int j = i; j > from && compare(j, j - 1) < 0; j--)
+		    swap(j, j - 1);
+	}
 
+	private void heapsort(int from, int to) {
+	    int n = to - from;
+	    for (int i = n / 2 - 1; i >= 0; i--)
+		siftDown(from, i, n);
+	    for (int end = n - 1; end > 0; end--) {
+		swap(from, from + end);
+		siftDown(from, 0, end);
+	    }
+	}
+
+	private void siftDown(int from, int i, int n) {
+	    while (true) {
+		int child = 2 * i + 1;
+		if (child >= n)
+		    return;
+		if (child + 1 < n
+			&& compare(from + child, from + child + 1) < 0)
+		    child++;
+		if (compare(from + i, from + child) >= 0)
+		    return;
+		swap(from + i, from + child);
+		i = child;
+	    }
+	}
     }
 }
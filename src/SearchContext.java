@@ -0,0 +1,286 @@
+/**
+ *  A SearchContext holds everything that query evaluation reads: the
+ *  index, its document lengths and field statistics, the retrieval
+ *  model and its parameters, and the optional block-max score bounds,
+ *  docid map, result cache and postings cache.  It is passed to every
+ *  query operator's evaluate method in place of global variables.
+ *
+ *  A context is immutable once it is built, and the objects that it
+ *  refers to are only read during evaluation, so one context can be
+ *  shared by queries that are evaluated concurrently.  Contexts for
+ *  several retrieval models (or several indexes) can exist at the
+ *  same time; withModel creates a context for another retrieval model
+ *  that shares the index data.
+ *
+ *  A context may also have a PostingsMemo, which lets several
+ *  evaluations of one query share the inverted lists that they read.
+ *  A memo is not thread-safe, so a context that has one must only be
+ *  used by one thread.  The same is true of a context that has a
+ *  QueryDag, which keeps the results of the shared nodes of one query,
+ *  or a QueryProfile, which records the evaluation of one query.
+ */
+
+import java.io.*;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+
+public class SearchContext {
+
+  private final IndexReader reader;
+  private final DocLengthStore doclen;
+  private final FieldStats fieldStats;
+  private final RetrievalModel model;
+  private final BlockMaxIndex blockMax;
+  private final PostingsMemo postings;
+  private final DocidMap docids;
+  private final ResultCache cache;
+  private final PostingsCache postingsCache;
+  private final QueryDag dag;
+  private final QueryProfile profile;
+
+  /**
+   *  @param reader The index.
+   *  @param doclen The index's document lengths.
+   *  @param fieldStats The index's field statistics.
+   *  @param model The retrieval model.  It must not be changed while
+   *               the context is in use.
+   *  @param blockMax Precomputed score bounds for the index, or null.
+   */
+  public SearchContext(IndexReader reader, DocLengthStore doclen,
+                       FieldStats fieldStats, RetrievalModel model,
+                       BlockMaxIndex blockMax) {
+    this(reader, doclen, fieldStats, model, blockMax, null, null, null,
+         null, null, null);
+  }
+
+  private SearchContext(IndexReader reader, DocLengthStore doclen,
+                        FieldStats fieldStats, RetrievalModel model,
+                        BlockMaxIndex blockMax, PostingsMemo postings,
+                        DocidMap docids, ResultCache cache,
+                        PostingsCache postingsCache, QueryDag dag,
+                        QueryProfile profile) {
+    this.reader = reader;
+    this.doclen = doclen;
+    this.fieldStats = fieldStats;
+    this.model = model;
+    this.blockMax = blockMax;
+    this.postings = postings;
+    this.docids = docids;
+    this.cache = cache;
+    this.postingsCache = postingsCache;
+    this.dag = dag;
+    this.profile = profile;
+  }
+
+  /**
+   *  Create a context that evaluates queries with a different
+   *  retrieval model on the same index.
+   *  @param model The retrieval model.
+   *  @return The new context.
+   */
+  public SearchContext withModel(RetrievalModel model) {
+    return new SearchContext(reader, doclen, fieldStats, model, blockMax,
+                             postings, docids, cache, postingsCache,
+                             dag, profile);
+  }
+
+  /**
+   *  Create a context that reads term inverted lists through a memo.
+   *  @param postings The memo, or null to read lists from the index.
+   *  @return The new context.
+   */
+  public SearchContext withPostingsMemo(PostingsMemo postings) {
+    return new SearchContext(reader, doclen, fieldStats, model, blockMax,
+                             postings, docids, cache, postingsCache,
+                             dag, profile);
+  }
+
+  /**
+   *  Create a context that maps document ids with a docid map instead
+   *  of reading stored documents and searching the index.
+   *  @param docids The map, or null.
+   *  @return The new context.
+   */
+  public SearchContext withDocidMap(DocidMap docids) {
+    return new SearchContext(reader, doclen, fieldStats, model, blockMax,
+                             postings, docids, cache, postingsCache,
+                             dag, profile);
+  }
+
+  /**
+   *  Create a context that evaluates query operators through a result
+   *  cache.
+   *  @param cache The cache, or null.
+   *  @return The new context.
+   */
+  public SearchContext withResultCache(ResultCache cache) {
+    return new SearchContext(reader, doclen, fieldStats, model, blockMax,
+                             postings, docids, cache, postingsCache,
+                             dag, profile);
+  }
+
+  /**
+   *  Create a context that reads term inverted lists through a cache
+   *  that is shared by queries.  A PostingsMemo, if there is one, is
+   *  used first.
+   *  @param postingsCache The cache, or null.
+   *  @return The new context.
+   */
+  public SearchContext withPostingsCache(PostingsCache postingsCache) {
+    return new SearchContext(reader, doclen, fieldStats, model, blockMax,
+                             postings, docids, cache, postingsCache,
+                             dag, profile);
+  }
+
+  /**
+   *  Create a context that evaluates the shared nodes of a compiled
+   *  query once.  The context must only be used for that query, by
+   *  one thread.
+   *  @param dag The compiled query, or null.
+   *  @return The new context.
+   */
+  public SearchContext withQueryDag(QueryDag dag) {
+    return new SearchContext(reader, doclen, fieldStats, model, blockMax,
+                             postings, docids, cache, postingsCache, dag,
+                             profile);
+  }
+
+  /**
+   *  Create a context that records the evaluation of a query in a
+   *  profile.  The context must only be used for that query, by one
+   *  thread.
+   *  @param profile The profile, or null.
+   *  @return The new context.
+   */
+  public SearchContext withQueryProfile(QueryProfile profile) {
+    return new SearchContext(reader, doclen, fieldStats, model, blockMax,
+                             postings, docids, cache, postingsCache, dag,
+                             profile);
+  }
+
+  public IndexReader getReader() {
+    return reader;
+  }
+
+  public DocLengthStore getDocLengthStore() {
+    return doclen;
+  }
+
+  public FieldStats getFieldStats() {
+    return fieldStats;
+  }
+
+  public RetrievalModel getModel() {
+    return model;
+  }
+
+  /**
+   *  The block-max score bounds, or null if there are none.
+   */
+  public BlockMaxIndex getBlockMax() {
+    return blockMax;
+  }
+
+  /**
+   *  The memo that term inverted lists are read through, or null.
+   */
+  public PostingsMemo getPostingsMemo() {
+    return postings;
+  }
+
+  /**
+   *  The docid map, or null if there is none.
+   */
+  public DocidMap getDocidMap() {
+    return docids;
+  }
+
+  /**
+   *  The cache that term inverted lists are read through, or null.
+   */
+  public PostingsCache getPostingsCache() {
+    return postingsCache;
+  }
+
+  /**
+   *  The compiled query whose shared results are kept, or null.
+   */
+  public QueryDag getQueryDag() {
+    return dag;
+  }
+
+  /**
+   *  The profile that records the evaluation of the query, or null.
+   */
+  public QueryProfile getQueryProfile() {
+    return profile;
+  }
+
+  /**
+   *  The result cache, or null if there is none.
+   */
+  public ResultCache getResultCache() {
+    return cache;
+  }
+
+  /**
+   *  Get the external document id for a document specified by an
+   *  internal document id.
+   *  @param iid The internal document id of the document.
+   *  @return The external id, or null if the document has none.
+   *  @throws IOException
+   */
+  public String getExternalDocid(int iid) throws IOException {
+    if (docids != null)
+      return docids.getExternalId(iid);
+
+    Document d = reader.document(iid);
+    return d.get("externalId");
+  }
+
+  /**
+   *  Finds the internal document id for a document specified by its
+   *  external id, e.g. clueweb09-enwp00-88-09710.  If no such document
+   *  exists, it throws an exception.
+   *  @param externalId The external document id of a document.
+   *  @return An internal doc id suitable for finding document vectors etc.
+   *  @throws Exception
+   */
+  public int getInternalDocid(String externalId) throws Exception {
+    if (docids != null) {
+      int iid = docids.getInternalDocid(externalId);
+      if (iid < 0)
+        throw new Exception("External id not found.");
+      return iid;
+    }
+
+    Query q = new TermQuery(new Term("externalId", externalId));
+
+    IndexSearcher searcher = new IndexSearcher(reader);
+    TopScoreDocCollector collector = TopScoreDocCollector.create(1, false);
+    searcher.search(q, collector);
+    ScoreDoc[] hits = collector.topDocs().scoreDocs;
+
+    if (hits.length < 1) {
+      throw new Exception("External id not found.");
+    } else {
+      return hits[0].doc;
+    }
+  }
+
+  /**
+   *  Compare the external ids of two documents.  With a docid map
+   *  this does not read or allocate anything.
+   *  @return A negative number, zero or a positive number if the id of
+   *    iidA is before, the same as, or after the id of iidB.
+   *  @throws IOException
+   */
+  public int compareExternalDocids(int iidA, int iidB) throws IOException {
+    if (docids != null)
+      return docids.compare(iidA, iidB);
+
+    return getExternalDocid(iidA).compareTo(getExternalDocid(iidB));
+  }
+}
@@ -12,6 +12,7 @@
 import java.io.*;
 
 import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
@@ -21,6 +22,7 @@ public class TermVector {
   /**
    * Class variables.
    */
+  IndexReader reader;
   Terms luceneTerms;
   int[] positions;
   String[] stems;
@@ -29,13 +31,18 @@ public class TermVector {
 
   /**
    *  Constructor.  Create a TermVector for a field in a document.
+   *  @param reader The index.
+   *  @param docId The internal id of the document.
+   *  @param fieldName The field.
    *  @return {@link TermVector}
    */
-  public TermVector(int docId, String fieldName) throws IOException {
+  public TermVector(IndexReader reader, int docId, String fieldName)
+    throws IOException {
 
     //  Fetch the term vector.
 
-    this.luceneTerms = QryEval.READER.getTermVector(docId, fieldName);
+    this.reader = reader;
+    this.luceneTerms = reader.getTermVector(docId, fieldName);
 
     //  Allocate space for stems. The 0'th stem indicates a stopword.
 
@@ -152,7 +159,7 @@ public class TermVector {
    * @throws IOException.
    */
   public long totalStemFreq(int i) throws IOException {
-    return QryEval.READER.totalTermFreq(terms[i]);
+    return reader.totalTermFreq(terms[i]);
   }
   
   /**
@@ -162,7 +169,7 @@ public class TermVector {
    * @throws IOException.
    */
   public int stemDf(int i) throws IOException {
-    return QryEval.READER.docFreq(terms[i]);
+    return reader.docFreq(terms[i]);
   }
   
 }
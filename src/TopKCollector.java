@@ -0,0 +1,183 @@
+/**
+ *  TopKCollector keeps the k highest-scoring documents seen so far in
+ *  a bounded min-heap of primitive docids and scores.  Documents that
+ *  tie with the k'th score are kept too, so that the caller can break
+ *  ties at the boundary (e.g., by external document id) exactly as
+ *  if every document had been kept.
+ *
+ *  Scores are compared with Double.compare, which is the order that
+ *  QryEval.printResults uses.
+ */
+
+import java.util.*;
+
+public class TopKCollector {
+
+  //  The heap starts small and grows as documents are collected, so a
+  //  large k costs nothing unless that many documents match.
+
+  private static final int INITIAL_CAPACITY = 128;
+
+  private int k;
+  private int size = 0;
+  private int[] heapDocs;
+  private double[] heapScores;
+
+  //  Documents that were displaced from the heap (or never entered
+  //  it) but tie with the smallest score in the heap.
+
+  private int ties = 0;
+  private int[] tieDocs = new int[16];
+
+  /**
+   *  Constructor.
+   *  @param k The number of documents to keep.
+   */
+  public TopKCollector(int k) {
+    this.k = Math.max(k, 1);
+    this.heapDocs = new int[Math.min(this.k, INITIAL_CAPACITY)];
+    this.heapScores = new double[heapDocs.length];
+  }
+
+  /**
+   *  Offer a document to the collector.
+   *  @param docid The internal document id.
+   *  @param score The document's score.
+   */
+  public void collect(int docid, double score) {
+
+    if (size < k) {
+      if (size == heapDocs.length) {
+        int capacity = (int) Math.min(k, 2L * size);
+        heapDocs = Arrays.copyOf(heapDocs, capacity);
+        heapScores = Arrays.copyOf(heapScores, capacity);
+      }
+      heapDocs[size] = docid;
+      heapScores[size] = score;
+      siftUp(size++);
+      return;
+    }
+
+    int c = Double.compare(score, heapScores[0]);
+
+    if (c < 0)
+      return;
+
+    if (c == 0) {
+      addTie(docid);
+      return;
+    }
+
+    //  Replace the smallest document.  It stays a candidate only if
+    //  it still ties with the new smallest score.
+
+    int evictedDoc = heapDocs[0];
+    double evictedScore = heapScores[0];
+
+    heapDocs[0] = docid;
+    heapScores[0] = score;
+    siftDown(0);
+
+    if (Double.compare(evictedScore, heapScores[0]) == 0) {
+      addTie(evictedDoc);
+    } else {
+      ties = 0;
+    }
+  }
+
+  /**
+   *  Returns true when k documents have been collected, i.e., when
+   *  threshold() is meaningful.
+   */
+  public boolean isFull() {
+    return size == k;
+  }
+
+  /**
+   *  The smallest score that a new document needs to become a
+   *  candidate.  Only meaningful once the collector is full.
+   *  @return The k'th best score seen so far.
+   */
+  public double threshold() {
+    return heapScores[0];
+  }
+
+  /**
+   *  The number of candidates, including ties at the boundary.
+   */
+  public int size() {
+    return size + ties;
+  }
+
+  /**
+   *  Return the candidates as a score list in docid order.  It
+   *  contains the k best documents and any documents that tie with
+   *  the k'th best.
+   */
+  public ScoreList toScoreList() {
+
+    int n = size + ties;
+    long[] order = new long[n];
+
+    for (int i = 0; i < size; i++)
+      order[i] = ((long) heapDocs[i] << 32) | i;
+
+    for (int i = 0; i < ties; i++)
+      order[size + i] = ((long) tieDocs[i] << 32) | (size + i);
+
+    Arrays.sort(order);
+
+    ScoreList list = new ScoreList();
+
+    for (int i = 0; i < n; i++) {
+      int j = (int) order[i];
+      if (j < size)
+        list.add(heapDocs[j], heapScores[j]);
+      else
+        list.add(tieDocs[j - size], heapScores[0]);
+    }
+
+    return list;
+  }
+
+  private void addTie(int docid) {
+    if (ties == tieDocs.length)
+      tieDocs = Arrays.copyOf(tieDocs, 2 * ties);
+    tieDocs[ties++] = docid;
+  }
+
+  private void siftUp(int i) {
+    int doc = heapDocs[i];
+    double score = heapScores[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (Double.compare(heapScores[parent], score) <= 0)
+        break;
+      heapDocs[i] = heapDocs[parent];
+      heapScores[i] = heapScores[parent];
+      i = parent;
+    }
+    heapDocs[i] = doc;
+    heapScores[i] = score;
+  }
+
+  private void siftDown(int i) {
+    int doc = heapDocs[i];
+    double score = heapScores[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size)
+        break;
+      if (child + 1 < size &&
+          Double.compare(heapScores[child + 1], heapScores[child]) < 0)
+        child++;
+      if (Double.compare(score, heapScores[child]) <= 0)
+        break;
+      heapDocs[i] = heapDocs[child];
+      heapScores[i] = heapScores[child];
+      i = child;
+    }
+    heapDocs[i] = doc;
+    heapScores[i] = score;
+  }
+}
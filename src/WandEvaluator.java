@@ -0,0 +1,178 @@
+/**
+ *  WandEvaluator evaluates a #SUM query document-at-a-time with the
+ *  WAND dynamic pruning algorithm (Broder et al., 2003).  Each
+ *  argument has an upper bound on its score (ScoreIterator.maxScore).
+ *  The arguments are kept sorted by their current document; the
+ *  "pivot" is the first document at which the bounds of the
+ *  arguments before it could add up to the score of the k'th best
+ *  document so far.  Documents before the pivot cannot enter the top
+ *  k, so the arguments skip directly to the pivot.
+ *
+ *  If the arguments have block-max bounds (see BlockMaxIndex), the
+ *  pivot is also checked against the bounds of the blocks that
+ *  contain it (Block-Max WAND, Ding and Suel, 2011), which allows
+ *  skipping whole blocks.
+ *
+ *  Documents that are scored are scored exactly as #SUM scores them
+ *  (the matching arguments' scores are added in argument order), and
+ *  documents that tie with the k'th best document are never pruned,
+ *  so the top k documents are the same as for exhaustive evaluation.
+ */
+
+import java.io.*;
+
+public class WandEvaluator {
+
+  //  Bounds are added in a different order than scores, so allow for
+  //  rounding when comparing a sum of bounds with the threshold.
+
+  private static final double SLACK = 1e-9;
+
+  private ScoreIterator[] args;
+  private double[] bounds;
+  private int[] order;
+  private int docsScored = 0;
+
+  /**
+   *  Constructor.
+   *  @param args The #SUM arguments, in argument order.
+   */
+  public WandEvaluator(ScoreIterator[] args) {
+    this.args = args;
+    this.bounds = new double[args.length];
+    this.order = new int[args.length];
+
+    for (int i = 0; i < args.length; i++) {
+      this.bounds[i] = args[i].maxScore();
+      this.order[i] = i;
+    }
+  }
+
+  /**
+   *  Evaluate the query.
+   *  @param topK The collector that receives the scored documents.
+   *  @throws IOException
+   */
+  public void evaluate(TopKCollector topK) throws IOException {
+
+    for (int i = 0; i < args.length; i++)
+      args[i].nextDoc();
+
+    while (true) {
+
+      sortByDocid();
+
+      //  Find the pivot.  Until the collector is full, every document
+      //  is a candidate.
+
+      int pivot = -1;
+      double bound = 0.0;
+
+      for (int p = 0; p < order.length; p++) {
+        if (args[order[p]].docID() == ScoreIterator.NO_MORE_DOCS)
+          break;
+
+        bound += bounds[order[p]];
+
+        if (!topK.isFull() ||
+            bound + SLACK * Math.abs(bound) >= topK.threshold()) {
+          pivot = p;
+          break;
+        }
+      }
+
+      if (pivot < 0)
+        return;
+
+      int pivotDoc = args[order[pivot]].docID();
+
+      //  Arguments after the pivot that are on the pivot document
+      //  contribute to its score too.
+
+      while (pivot + 1 < order.length &&
+             args[order[pivot + 1]].docID() == pivotDoc)
+        pivot++;
+
+      //  Block-max check.  The bounds of the blocks that contain the
+      //  pivot document may show that no document from the pivot
+      //  document to the end of the shortest of those blocks can
+      //  enter the top k.  The arguments after the pivot don't match
+      //  any document before their current documents.
+
+      if (topK.isFull()) {
+        double blockBound = 0.0;
+        long skipTo = ScoreIterator.NO_MORE_DOCS;
+
+        for (int p = 0; p <= pivot; p++) {
+          blockBound += args[order[p]].blockMaxScore(pivotDoc);
+          skipTo = Math.min(skipTo, args[order[p]].blockEnd(pivotDoc) + 1L);
+        }
+
+        if (blockBound + SLACK * Math.abs(blockBound) < topK.threshold()) {
+          if (pivot + 1 < order.length)
+            skipTo = Math.min(skipTo, args[order[pivot + 1]].docID());
+
+          for (int p = 0; p <= pivot; p++)
+            if (args[order[p]].docID() < skipTo)
+              args[order[p]].advance((int) skipTo);
+
+          continue;
+        }
+      }
+
+      if (args[order[0]].docID() == pivotDoc) {
+
+        //  The arguments up to the pivot are all on the pivot
+        //  document, so score it and move past it.
+
+        double docScore = 0.0;
+        boolean first = true;
+
+        for (int i = 0; i < args.length; i++) {
+          if (args[i].docID() == pivotDoc) {
+            docScore = first ? args[i].score() : docScore + args[i].score();
+            first = false;
+          }
+        }
+
+        topK.collect(pivotDoc, docScore);
+        docsScored++;
+
+        for (int i = 0; i < args.length; i++)
+          if (args[i].docID() == pivotDoc)
+            args[i].nextDoc();
+
+      } else {
+
+        //  No document before the pivot document can enter the top k.
+
+        for (int p = 0; p < pivot; p++)
+          if (args[order[p]].docID() < pivotDoc)
+            args[order[p]].advance(pivotDoc);
+      }
+    }
+  }
+
+  /**
+   *  The number of documents that were fully scored.
+   */
+  public int getDocsScored() {
+    return docsScored;
+  }
+
+  //  Insertion sort, because there are few arguments and they are
+  //  nearly sorted after each step.
+
+  private void sortByDocid() {
+    for (int i = 1; i < order.length; i++) {
+      int o = order[i];
+      int d = args[o].docID();
+      int j = i - 1;
+      while (j >= 0 && args[order[j]].docID() > d) {
+        order[j + 1] = order[j];
+        j--;
+      }
+      order[j + 1] = o;
+    }
+  }
+}